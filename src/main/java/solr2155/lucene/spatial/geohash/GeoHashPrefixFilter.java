@@ -26,7 +26,6 @@ import org.apache.lucene.util.OpenBitSet;
 import solr2155.lucene.TermsEnumCompatibility;
 import solr2155.lucene.spatial.geometry.shape.Geometry2D;
 import solr2155.lucene.spatial.geometry.shape.IntersectCase;
-import solr2155.lucene.spatial.geometry.shape.Point2D;
 
 import java.io.IOException;
 import java.util.LinkedList;
@@ -40,6 +39,7 @@ import java.util.LinkedList;
 public class GeoHashPrefixFilter extends Filter {
 
   private static final int GRIDLEN_SCAN_THRESHOLD = 4;//>= 1
+  private static final int LEAF_BLOCK_SIZE = 64;//leaves buffered to test against the shape at once
   private final String fieldName;//interned
   private final Geometry2D geoShape;
   private final GridNode.GridReferenceSystem gridReferenceSystem;
@@ -55,6 +55,11 @@ public class GeoHashPrefixFilter extends Filter {
     final OpenBitSet bits = new OpenBitSet(reader.maxDoc());
     final TermsEnumCompatibility termsEnum = new TermsEnumCompatibility(reader, fieldName);//Lucene 4 compatibility wrapper
     final TermDocs termDocs = reader.termDocs();
+    final double[] xy = new double[4];//a leaf's x,y (and scratch), reused
+    //a block of leaves and their points, tested together with Geometry2D.containsAll
+    final Term[] leafTerms = new Term[LEAF_BLOCK_SIZE];
+    final double[] leafXs = new double[LEAF_BLOCK_SIZE], leafYs = new double[LEAF_BLOCK_SIZE];
+    final int[] leavesIn = new int[LEAF_BLOCK_SIZE];
     Term term = termsEnum.term();//the most recent term examined via termsEnum.term()
     if (term == null)
       return bits;
@@ -62,7 +67,7 @@ public class GeoHashPrefixFilter extends Filter {
     //TODO Add a precision short-circuit so that we are not accurate on the edge but we're faster.
 
     //TODO An array based nodes impl would be more efficient; or a stack of iterators.  LinkedList conveniently has bulk add to beginning.
-    LinkedList<GridNode> nodes = new LinkedList<GridNode>(gridReferenceSystem.getSubNodes(geoShape.boundingRectangle()));
+    LinkedList<GridNode> nodes = new LinkedList<GridNode>(gridReferenceSystem.getSubNodes(geoShape));
     while(!nodes.isEmpty() && term != null) {
       final GridNode node = nodes.removeFirst();
       assert node.length() > 0;
@@ -102,19 +107,21 @@ public class GeoHashPrefixFilter extends Filter {
 //        }
 
         if (!manyPoints) {
-          //traverse all leaf terms within this node to see if they are within the geoShape, one by one.
+          //traverse all leaf terms within this node to see if they are within the geoShape, a block at a time.
+          int numLeaves = 0;
           for(; term != null && node.contains(term.text()); term = termsEnum.next()) {
             if (term.text().length() < gridReferenceSystem.maxLen)//not a leaf
               continue;
-            final Point2D point = gridReferenceSystem.decodeXY(term.text());
-            //Filter those out of the shape.
-            if(!geoShape.contains(point))
-                continue;
-
-            //record
-            termDocs.seek(term);
-            addDocs(termDocs,bits);
+            gridReferenceSystem.decodeXY(term.text(), xy);
+            leafTerms[numLeaves] = term;
+            leafXs[numLeaves] = xy[0];
+            leafYs[numLeaves] = xy[1];
+            if (++numLeaves == LEAF_BLOCK_SIZE) {
+              addLeafDocs(leafTerms, leafXs, leafYs, numLeaves, leavesIn, termDocs, bits);
+              numLeaves = 0;
+            }
           }
+          addLeafDocs(leafTerms, leafXs, leafYs, numLeaves, leavesIn, termDocs, bits);
         } else {
           //divide & conquer
           nodes.addAll(0,node.getSubNodes());//add to beginning
@@ -133,6 +140,18 @@ public class GeoHashPrefixFilter extends Filter {
 //    return levelProb;
 //  }
 
+  /** Filters the leaves out of the shape, and records the docs of the rest. */
+  private void addLeafDocs(Term[] leafTerms, double[] leafXs, double[] leafYs, int numLeaves, int[] leavesIn,
+                           TermDocs termDocs, OpenBitSet bits) throws IOException {
+    if (numLeaves == 0)
+      return;
+    final int numIn = geoShape.containsAll(leafXs, leafYs, numLeaves, leavesIn);
+    for (int i = 0; i < numIn; i++) {
+      termDocs.seek(leafTerms[leavesIn[i]]);
+      addDocs(termDocs, bits);
+    }
+  }
+
   private void addDocs(TermDocs termDocs, OpenBitSet bits) throws IOException {
     while(termDocs.next()) {
       bits.set(termDocs.doc());
@@ -111,14 +111,22 @@ public class GeoHashUtils {
    * @return Array with the latitude at index 0, and longitude at index 1
    */
   public static double[] decode(String geohash) {
-    Rectangle rect = decodeBoundary(geohash);
-    double latitude = (rect.getMinY() + rect.getMaxY()) / 2D;
-    double longitude = (rect.getMinX() + rect.getMaxX()) / 2D;
+    final double[] bounds = new double[4];
+    decodeBoundary(geohash, bounds);
+    double latitude = (bounds[1] + bounds[3]) / 2D;
+    double longitude = (bounds[0] + bounds[2]) / 2D;
     return new double[] {latitude, longitude};
 	}
 
   /** Returns min-max lat, min-max lon. */
   public static Rectangle decodeBoundary(String geohash) {
+    final double[] bounds = new double[4];
+    decodeBoundary(geohash, bounds);
+    return new Rectangle(bounds[0],bounds[1],bounds[2],bounds[3]);
+  }
+
+  /** Decodes the min-max lon and lat into bounds as minX, minY, maxX, maxY, allocating nothing. */
+  public static void decodeBoundary(String geohash, double[] bounds) {
     double minY = -90, maxY = 90, minX = -180, maxX = 180;
     boolean isEven = true;
 
@@ -151,7 +159,10 @@ public class GeoHashUtils {
       }
 
     }
-    return new Rectangle(minX,minY,maxX,maxY);
+    bounds[0] = minX;
+    bounds[1] = minY;
+    bounds[2] = maxX;
+    bounds[3] = maxY;
   }
 
   public static String[] getSubGeoHashes(String baseGeoHash) {
@@ -19,6 +19,7 @@ package solr2155.lucene.spatial.geohash;
 
 import org.apache.lucene.document.Fieldable;
 import org.apache.lucene.index.Term;
+import solr2155.lucene.spatial.geometry.shape.Geometry2D;
 import solr2155.lucene.spatial.geometry.shape.Point2D;
 import solr2155.lucene.spatial.geometry.shape.Rectangle;
 
@@ -54,17 +55,27 @@ public class GridNode {
 
     public int getGridSize() { return GeoHashUtils.BASE; }
 
-    public List<GridNode> getSubNodes(Rectangle r) {
-      double width = r.getMaxX() - r.getMinX();
-      double height = r.getMaxY() - r.getMinY();
-      int len = GeoHashUtils.lookupHashLenForWidthHeight(width,height);
-      len = Math.min(len,maxLen-1);
+    /** The ordered nodes covering the shape's {@link Geometry2D#getCoverBoxes()}. */
+    public List<GridNode> getSubNodes(Geometry2D shape) {
+      return getCoveringNodes(shape.getCoverBoxes());
+    }
+
+    /** The ordered nodes covering the rectangles, all of the same length; nodes common to them are listed once. */
+    public List<GridNode> getCoveringNodes(Rectangle... rects) {
+      int len = maxLen-1;
+      for (Rectangle r : rects) {
+        double width = r.getMaxX() - r.getMinX();
+        double height = r.getMaxY() - r.getMinY();
+        len = Math.min(len, GeoHashUtils.lookupHashLenForWidthHeight(width,height));
+      }
 
       Set<String> cornerGeoHashes = new TreeSet<String>();
-      cornerGeoHashes.add(encodeXY(r.getMinPoint(), len));
-      cornerGeoHashes.add(encodeXY(r.getMaxPoint(), len));
-      cornerGeoHashes.add(encodeXY(r.getMinXMaxYPoint(), len));
-      cornerGeoHashes.add(encodeXY(r.getMaxXMinYPoint(), len));
+      for (Rectangle r : rects) {
+        cornerGeoHashes.add(encodeXY(r.getMinX(), r.getMinY(), len));
+        cornerGeoHashes.add(encodeXY(r.getMaxX(), r.getMaxY(), len));
+        cornerGeoHashes.add(encodeXY(r.getMinX(), r.getMaxY(), len));
+        cornerGeoHashes.add(encodeXY(r.getMaxX(), r.getMinY(), len));
+      }
 
       List<GridNode> nodes = new ArrayList<GridNode>(getGridSize()*cornerGeoHashes.size());
       for (String hash : cornerGeoHashes) {//happens in sorted order
@@ -90,8 +101,8 @@ public class GridNode {
       return getSubNodes(baseHash);
     }
 
-    private String encodeXY(Point2D pt, int len) {
-      return GeoHashUtils.encode(pt.y(), pt.x(), len);
+    private String encodeXY(double x, double y, int len) {
+      return GeoHashUtils.encode(y, x, len);
     }
 
     public String encodeXY(double x, double y) {
@@ -113,6 +124,17 @@ public class GridNode {
       return new Point2D(latLon[1],latLon[0]);
     }
 
+    /**
+     * Decodes the term's x,y into xy[0] and xy[1] without allocating, for scanning many terms.  xy must have a length
+     * of 4, since the term's cell bounds are decoded into it on the way.
+     */
+    public void decodeXY(String term, double[] xy) {
+      GeoHashUtils.decodeBoundary(term, xy);
+      final double x = (xy[0] + xy[2]) / 2D;
+      xy[1] = (xy[1] + xy[3]) / 2D;
+      xy[0] = x;
+    }
+
   }
 
   private final GridReferenceSystem refSys;
@@ -0,0 +1,124 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package solr2155.lucene.spatial.geometry.shape;
+
+/**
+ * A ring around a point: the points within the outer distance of it but beyond the inner one, by haversine as for
+ * {@link PointDistanceGeom}.  A rectangle within the hole is OUTSIDE, so a grid cell there is pruned like one beyond
+ * the outer circle.
+ */
+public final class AnnulusGeom implements Geometry2D {
+  private final PointDistanceGeom outer, inner;
+
+  /**
+   * @param minDist the hole's distance; points at exactly it are in the hole.
+   * @param maxDist the outer distance; greater than minDist.
+   */
+  public AnnulusGeom(double lat, double lon, double minDist, double maxDist, double radius) {
+    if (minDist < 0 || minDist >= maxDist)
+      throw new IllegalArgumentException("An annulus needs 0 <= minDist < maxDist");
+    this.outer = new PointDistanceGeom(lat, lon, maxDist, radius);
+    this.inner = new PointDistanceGeom(lat, lon, minDist, radius);
+  }
+
+  @Override
+  public boolean contains(Point2D p) {
+    return contains(p.getX(), p.getY());
+  }
+
+  @Override
+  public boolean contains(double x, double y) {
+    return outer.contains(x, y) && !inner.contains(x, y);
+  }
+
+  /** The outer circle's points, less those in the hole. */
+  @Override
+  public int containsAll(double[] xs, double[] ys, int n, int[] out) {
+    final int numOuter = outer.containsAll(xs, ys, n, out);
+    int count = 0;
+    for (int k = 0; k < numOuter; k++) {
+      final int i = out[k];
+      if (!inner.contains(xs[i], ys[i]))
+        out[count++] = i;
+    }
+    return count;
+  }
+
+  @Override
+  public IntersectCase intersect(Rectangle r) {
+    final IntersectCase outerSect = outer.intersect(r);
+    if (outerSect == IntersectCase.OUTSIDE)
+      return IntersectCase.OUTSIDE;
+    final IntersectCase innerSect = inner.intersect(r);
+    if (innerSect == IntersectCase.CONTAINS)
+      return IntersectCase.OUTSIDE;//within the hole
+    if (outerSect == IntersectCase.CONTAINS && innerSect == IntersectCase.OUTSIDE)
+      return IntersectCase.CONTAINS;
+    return IntersectCase.INTERSECTS;
+  }
+
+  @Override
+  public Rectangle boundingRectangle() {
+    return outer.boundingRectangle();
+  }
+
+  /** The outer circle's; the hole is pruned as the grid is traversed. */
+  @Override
+  public Rectangle[] getCoverBoxes() {
+    return outer.getCoverBoxes();
+  }
+
+  @Override
+  public double area() {
+    throw new UnsupportedOperationException("An annulus's area in square degrees has no closed form");
+  }
+
+  @Override
+  public Point2D centroid() {
+    return outer.centroid();
+  }
+
+  /** The circle of the outer distance, whose boxes cover the annulus. */
+  public PointDistanceGeom getOuter() {
+    return outer;
+  }
+
+  /** The circle of the hole. */
+  public PointDistanceGeom getInner() {
+    return inner;
+  }
+
+  @Override
+  public String toString() {
+    return "AnnulusGeom{point=" + outer.centroid() + ", minDistance=" + inner.getDistance()
+        + ", maxDistance=" + outer.getDistance() + '}';
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) return true;
+    if (!(o instanceof AnnulusGeom)) return false;
+    AnnulusGeom that = (AnnulusGeom) o;
+    return outer.equals(that.outer) && inner.equals(that.inner);
+  }
+
+  @Override
+  public int hashCode() {
+    return 31 * outer.hashCode() + inner.hashCode();
+  }
+}
@@ -0,0 +1,324 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package solr2155.lucene.spatial.geometry.shape;
+
+import org.apache.lucene.spatial.DistanceUtils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The points within a distance of a line of great circle segments, such as a route: a corridor.  Each segment is a
+ * member of a {@link MultiGeom}, whose R-tree finds the segments near a point or rectangle.
+ * <p/>
+ * A segment works with unit vectors: a point is within the distance of it if, lying between the planes through the
+ * segment's ends perpendicular to it, its distance to the segment's great circle is (the dot product with the circle's
+ * normal is within the distance's sine), or else if the chord to either end is short enough.  A rectangle is
+ * OUTSIDE if its center is farther from the segment than the distance plus the farthest corner; CONTAINS if its
+ * corners are all within the distance of one segment, as for {@link PointDistanceGeom}.
+ * <p/>
+ * Corridors are equal if their lines, distances and radii are.
+ */
+public class CorridorGeom implements Geometry2D {
+  /** Radians (or bounding box degrees) added to the distance before deeming something beyond it, for rounding. */
+  private static final double OUTSIDE_MARGIN = 1e-9;
+
+  private final double[] line;
+  private final double distance;
+  private final double radius;
+  private final Geometry2D segments;//a MultiGeom, or a PointDistanceGeom for a single point
+
+  /**
+   * @param line the line's vertices as x,y (lon,lat) pairs.
+   * @param dist the distance around it, in the units of radius.
+   */
+  public CorridorGeom(double[] line, double dist, double radius) {
+    if (line.length < 2 || line.length % 2 != 0)
+      throw new IllegalArgumentException("A line needs x,y pairs");
+    if (dist <= 0)
+      throw new IllegalArgumentException("A corridor needs a positive distance");
+    this.line = line.clone();
+    this.distance = dist;
+    this.radius = radius;
+    if (line.length == 2) {
+      segments = new PointDistanceGeom(line[1], line[0], dist, radius);
+    } else {
+      final double angle = Math.min(dist / radius, Math.PI / 2);
+      List<Geometry2D> list = new ArrayList<Geometry2D>(line.length / 2 - 1);
+      for (int i = 0; i + 3 < line.length; i += 2) {
+        list.add(new Segment(line[i], line[i + 1], line[i + 2], line[i + 3], angle));
+      }
+      segments = new MultiGeom(list);
+    }
+  }
+
+  @Override
+  public boolean contains(Point2D p) {
+    return segments.contains(p.getX(), p.getY());
+  }
+
+  @Override
+  public boolean contains(double x, double y) {
+    return segments.contains(x, y);
+  }
+
+  @Override
+  public int containsAll(double[] xs, double[] ys, int n, int[] out) {
+    return segments.containsAll(xs, ys, n, out);
+  }
+
+  @Override
+  public IntersectCase intersect(Rectangle r) {
+    return segments.intersect(r);
+  }
+
+  @Override
+  public Rectangle boundingRectangle() {
+    return segments.boundingRectangle();
+  }
+
+  @Override
+  public Rectangle[] getCoverBoxes() {
+    return segments.getCoverBoxes();
+  }
+
+  @Override
+  public double area() {
+    throw new UnsupportedOperationException("A corridor's area in square degrees has no closed form");
+  }
+
+  /** The middle of the line: its middle vertex, or the midpoint of its middle segment. */
+  @Override
+  public Point2D centroid() {
+    final int mid = line.length / 4 * 2;
+    if (line.length % 4 == 2)
+      return new Point2D(line[mid], line[mid + 1]);
+    final double[] a = new double[3], b = new double[3];
+    unitVector(line[mid - 2], line[mid - 1], a);
+    unitVector(line[mid], line[mid + 1], b);
+    return midpoint(a[0], a[1], a[2], b[0], b[1], b[2]);
+  }
+
+  public double getDistance() {
+    return distance;
+  }
+
+  public double getRadius() {
+    return radius;
+  }
+
+  @Override
+  public String toString() {
+    return "CorridorGeom{distance=" + distance + ", segments=" + segments + '}';
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) return true;
+    if (!(o instanceof CorridorGeom)) return false;
+    CorridorGeom that = (CorridorGeom) o;
+    return Double.compare(that.distance, distance) == 0 && Double.compare(that.radius, radius) == 0
+        && Arrays.equals(line, that.line);
+  }
+
+  @Override
+  public int hashCode() {
+    long temp = Double.doubleToLongBits(distance);
+    int result = Arrays.hashCode(line);
+    result = 31 * result + (int) (temp ^ (temp >>> 32));
+    temp = Double.doubleToLongBits(radius);
+    return 31 * result + (int) (temp ^ (temp >>> 32));
+  }
+
+  /** The unit vector of a lon-lat in degrees, into out. */
+  static void unitVector(double lon, double lat, double[] out) {
+    final double latRad = lat * DistanceUtils.DEGREES_TO_RADIANS;
+    final double lonRad = lon * DistanceUtils.DEGREES_TO_RADIANS;
+    final double cosLat = Math.cos(latRad);
+    out[0] = cosLat * Math.cos(lonRad);
+    out[1] = cosLat * Math.sin(lonRad);
+    out[2] = Math.sin(latRad);
+  }
+
+  /** The great circle midpoint of two unit vectors, as a lon-lat in degrees; the first if they're antipodal. */
+  static Point2D midpoint(double ax, double ay, double az, double bx, double by, double bz) {
+    double mx = ax + bx, my = ay + by, mz = az + bz;
+    final double len = Math.sqrt(mx * mx + my * my + mz * mz);
+    if (len <= 1e-15) {
+      mx = ax; my = ay; mz = az;
+    } else {
+      mx /= len; my /= len; mz /= len;
+    }
+    return new Point2D(Math.atan2(my, mx) * DistanceUtils.RADIANS_TO_DEGREES,
+        Math.asin(Math.max(-1, Math.min(1, mz))) * DistanceUtils.RADIANS_TO_DEGREES);
+  }
+
+  /** The points within an angle (at most a right angle) of a great circle segment. */
+  static final class Segment implements Geometry2D {
+    private final double ax, ay, az, bx, by, bz;//the ends
+    private final double nx, ny, nz;//the great circle's unit normal; 0 if the ends coincide
+    private final boolean isPoint;//the ends coincide
+    private final double tax, tay, taz, tbx, tby, tbz;//the direction of travel at each end
+    private final double angle, sinAngle, chordSq;
+    private final Rectangle bbox;
+
+    Segment(double lon1, double lat1, double lon2, double lat2, double angle) {
+      final double[] v = new double[3];
+      unitVector(lon1, lat1, v);
+      ax = v[0]; ay = v[1]; az = v[2];
+      unitVector(lon2, lat2, v);
+      bx = v[0]; by = v[1]; bz = v[2];
+      double cx = ay * bz - az * by, cy = az * bx - ax * bz, cz = ax * by - ay * bx;
+      final double len = Math.sqrt(cx * cx + cy * cy + cz * cz);
+      isPoint = len <= 1e-15;
+      if (!isPoint) {
+        nx = cx / len; ny = cy / len; nz = cz / len;
+      } else {
+        nx = ny = nz = 0;
+      }
+      tax = ny * az - nz * ay; tay = nz * ax - nx * az; taz = nx * ay - ny * ax;
+      tbx = ny * bz - nz * by; tby = nz * bx - nx * bz; tbz = nx * by - ny * bx;
+      this.angle = angle;
+      this.sinAngle = Math.sin(angle);
+      final double hsin = Math.sin(angle / 2);
+      this.chordSq = 4 * hsin * hsin;
+      this.bbox = calcBoundingRectangle(lon1, lat1, lon2, lat2);
+    }
+
+    private Rectangle calcBoundingRectangle(double lon1, double lat1, double lon2, double lat2) {
+      //the arc's extreme latitudes are at its ends, or at the great circle's vertices if they're on it
+      double minLat = Math.min(lat1, lat2), maxLat = Math.max(lat1, lat2);
+      final double vLen = Math.sqrt(nx * nx + ny * ny);//the vertex's z, by Pythagoras
+      if (vLen > 0) {
+        //the northern vertex is z - (z.n)n, normalized
+        final double vx = -nz * nx / vLen, vy = -nz * ny / vLen;
+        final double vLat = Math.asin(vLen) * DistanceUtils.RADIANS_TO_DEGREES;
+        if (between(vx, vy, vLen))
+          maxLat = Math.max(maxLat, vLat);
+        if (between(-vx, -vy, -vLen))
+          minLat = Math.min(minLat, -vLat);
+      }
+      final double angleDeg = angle * DistanceUtils.RADIANS_TO_DEGREES + OUTSIDE_MARGIN;
+      final double minY = Math.max(-90, minLat - angleDeg), maxY = Math.min(90, maxLat + angleDeg);
+      //a point within the angle of a latitude phi is within asin(sin(angle) / cos(phi)) of its longitude
+      final double cosMaxLat = Math.cos(Math.max(Math.abs(minLat), Math.abs(maxLat)) * DistanceUtils.DEGREES_TO_RADIANS);
+      if (Math.abs(lon2 - lon1) > 180 || sinAngle >= cosMaxLat)
+        return new Rectangle(-180, minY, 180, maxY);//crosses the dateline or nears a pole
+      final double lonGap = Math.asin(sinAngle / cosMaxLat) * DistanceUtils.RADIANS_TO_DEGREES + OUTSIDE_MARGIN;
+      final double minX = Math.min(lon1, lon2) - lonGap, maxX = Math.max(lon1, lon2) + lonGap;
+      if (minX < -180 || maxX > 180)
+        return new Rectangle(-180, minY, 180, maxY);
+      return new Rectangle(minX, minY, maxX, maxY);
+    }
+
+    /** Whether the unit vector lies between the planes through the ends, perpendicular to the segment. */
+    private boolean between(double px, double py, double pz) {
+      return !isPoint && px * tax + py * tay + pz * taz >= 0 && px * tbx + py * tby + pz * tbz <= 0;
+    }
+
+    @Override
+    public boolean contains(Point2D p) {
+      return contains(p.getX(), p.getY());
+    }
+
+    @Override
+    public boolean contains(double x, double y) {
+      if (!bbox.contains(x, y))
+        return false;
+      final double latRad = y * DistanceUtils.DEGREES_TO_RADIANS;
+      final double lonRad = x * DistanceUtils.DEGREES_TO_RADIANS;
+      final double cosLat = Math.cos(latRad);
+      return contains(cosLat * Math.cos(lonRad), cosLat * Math.sin(lonRad), Math.sin(latRad));
+    }
+
+    @Override
+    public int containsAll(double[] xs, double[] ys, int n, int[] out) {
+      int count = 0;
+      for (int i = 0; i < n; i++) {
+        if (contains(xs[i], ys[i]))
+          out[count++] = i;
+      }
+      return count;
+    }
+
+    private boolean contains(double px, double py, double pz) {
+      if (between(px, py, pz))
+        return Math.abs(px * nx + py * ny + pz * nz) <= sinAngle;
+      double dx = px - ax, dy = py - ay, dz = pz - az;
+      if (dx * dx + dy * dy + dz * dz <= chordSq)
+        return true;
+      dx = px - bx; dy = py - by; dz = pz - bz;
+      return dx * dx + dy * dy + dz * dz <= chordSq;
+    }
+
+    /** The angle in radians from the unit vector to the nearest point of the segment. */
+    private double angleTo(double px, double py, double pz) {
+      if (between(px, py, pz))
+        return Math.asin(Math.min(1, Math.abs(px * nx + py * ny + pz * nz)));
+      return Math.min(angleBetween(px, py, pz, ax, ay, az), angleBetween(px, py, pz, bx, by, bz));
+    }
+
+    private static double angleBetween(double px, double py, double pz, double qx, double qy, double qz) {
+      final double cx = py * qz - pz * qy, cy = pz * qx - px * qz, cz = px * qy - py * qx;
+      return Math.atan2(Math.sqrt(cx * cx + cy * cy + cz * cz), px * qx + py * qy + pz * qz);
+    }
+
+    @Override
+    public IntersectCase intersect(Rectangle r) {
+      if (bbox.intersect(r) == IntersectCase.OUTSIDE)
+        return IntersectCase.OUTSIDE;
+      final double[] c = new double[3], v = new double[3];
+      unitVector((r.getMinX() + r.getMaxX()) / 2, (r.getMinY() + r.getMaxY()) / 2, c);
+      //the rectangle's farthest point from its center is a corner; check the corners on the way
+      double farthest = 0;
+      boolean allIn = true;
+      for (int corner = 0; corner < 4; corner++) {
+        unitVector(corner < 2 ? r.getMinX() : r.getMaxX(), corner % 2 == 0 ? r.getMinY() : r.getMaxY(), v);
+        farthest = Math.max(farthest, angleBetween(c[0], c[1], c[2], v[0], v[1], v[2]));
+        allIn = allIn && contains(v[0], v[1], v[2]);
+      }
+      if (allIn)
+        return IntersectCase.CONTAINS;
+      if (angleTo(c[0], c[1], c[2]) > angle + farthest + OUTSIDE_MARGIN)
+        return IntersectCase.OUTSIDE;
+      return IntersectCase.INTERSECTS;
+    }
+
+    @Override
+    public Rectangle boundingRectangle() {
+      return bbox;
+    }
+
+    @Override
+    public Rectangle[] getCoverBoxes() {
+      return new Rectangle[]{bbox};
+    }
+
+    @Override
+    public double area() {
+      throw new UnsupportedOperationException("A segment's area in square degrees has no closed form");
+    }
+
+    /** The great circle midpoint of the ends. */
+    @Override
+    public Point2D centroid() {
+      return midpoint(ax, ay, az, bx, by, bz);
+    }
+  }
+}
@@ -0,0 +1,138 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package solr2155.lucene.spatial.geometry.shape;
+
+/**
+ * A lon-lat rectangle crossing the dateline: from minX east to 180 and on from -180 to maxX, so minX > maxX.  Its
+ * {@link #boundingRectangle()} has to span all longitudes, so the grid is covered from its two sides instead; see
+ * {@link #getCoverBoxes()}.
+ */
+public class DatelineRectangle implements Geometry2D {
+  private final double minX, minY, maxX, maxY;
+  private final Rectangle east, west;//the sides east & west of the dateline
+
+  public DatelineRectangle(double minX, double minY, double maxX, double maxY) {
+    if (minX <= maxX)
+      throw new IllegalArgumentException("minX must exceed maxX to cross the dateline");
+    this.minX = minX;
+    this.minY = minY;
+    this.maxX = maxX;
+    this.maxY = maxY;
+    this.west = new Rectangle(minX, minY, 180, maxY);
+    this.east = new Rectangle(-180, minY, maxX, maxY);
+  }
+
+  @Override
+  public boolean contains(Point2D p) {
+    return contains(p.getX(), p.getY());
+  }
+
+  @Override
+  public boolean contains(double x, double y) {
+    return y >= minY && y <= maxY && (x >= minX || x <= maxX);
+  }
+
+  @Override
+  public int containsAll(double[] xs, double[] ys, int n, int[] out) {
+    int count = 0;
+    for (int i = 0; i < n; i++) {
+      if (contains(xs[i], ys[i]))
+        out[count++] = i;
+    }
+    return count;
+  }
+
+  @Override
+  public double area() {
+    return west.area() + east.area();
+  }
+
+  @Override
+  public Point2D centroid() {
+    double x = (minX + maxX + 360) / 2;
+    return new Point2D(x > 180 ? x - 360 : x, (minY + maxY) / 2);
+  }
+
+  @Override
+  public Rectangle boundingRectangle() {
+    return new Rectangle(-180, minY, 180, maxY);
+  }
+
+  /** The two sides of the dateline, rather than the bounding rectangle spanning all longitudes. */
+  @Override
+  public Rectangle[] getCoverBoxes() {
+    return new Rectangle[]{west, east};
+  }
+
+  @Override
+  public IntersectCase intersect(Rectangle r) {
+    IntersectCase westSect = west.intersect(r);
+    IntersectCase eastSect = east.intersect(r);
+    if (westSect == IntersectCase.CONTAINS || eastSect == IntersectCase.CONTAINS)
+      return IntersectCase.CONTAINS;
+    if (westSect == IntersectCase.OUTSIDE && eastSect == IntersectCase.OUTSIDE)
+      return IntersectCase.OUTSIDE;
+    return IntersectCase.INTERSECTS;
+  }
+
+  /** The side west of the dateline, from minX to 180. */
+  public Rectangle getWestRectangle() {
+    return west;
+  }
+
+  /** The side east of the dateline, from -180 to maxX. */
+  public Rectangle getEastRectangle() {
+    return east;
+  }
+
+  public double getMinX() {
+    return minX;
+  }
+
+  public double getMinY() {
+    return minY;
+  }
+
+  public double getMaxX() {
+    return maxX;
+  }
+
+  public double getMaxY() {
+    return maxY;
+  }
+
+  @Override
+  public String toString() {
+    return "DatelineRectangle[" + minX + "," + minY + " to " + maxX + "," + maxY + "]";
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    if (this == obj)
+      return true;
+    if (!(obj instanceof DatelineRectangle))
+      return false;
+    DatelineRectangle other = (DatelineRectangle) obj;
+    return west.equals(other.west) && east.equals(other.east);
+  }
+
+  @Override
+  public int hashCode() {
+    return 31 * west.hashCode() + east.hashCode();
+  }
+}
@@ -0,0 +1,116 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package solr2155.lucene.spatial.geometry.shape;
+
+/**
+ * The points of one Geometry2D that aren't in another, e.g. a polygon less some exclusion zones (a {@link MultiGeom}).
+ * A rectangle the excluded shape contains is OUTSIDE, so a grid cell there is pruned without testing its points.
+ */
+public class DifferenceGeom implements Geometry2D {
+  private final Geometry2D base, excluded;
+
+  public DifferenceGeom(Geometry2D base, Geometry2D excluded) {
+    this.base = base;
+    this.excluded = excluded;
+  }
+
+  @Override
+  public boolean contains(Point2D p) {
+    return contains(p.getX(), p.getY());
+  }
+
+  @Override
+  public boolean contains(double x, double y) {
+    return base.contains(x, y) && !excluded.contains(x, y);
+  }
+
+  /** The base's points, less those excluded. */
+  @Override
+  public int containsAll(double[] xs, double[] ys, int n, int[] out) {
+    final int numBase = base.containsAll(xs, ys, n, out);
+    int count = 0;
+    for (int k = 0; k < numBase; k++) {
+      final int i = out[k];
+      if (!excluded.contains(xs[i], ys[i]))
+        out[count++] = i;
+    }
+    return count;
+  }
+
+  @Override
+  public IntersectCase intersect(Rectangle r) {
+    final IntersectCase baseSect = base.intersect(r);
+    if (baseSect == IntersectCase.OUTSIDE)
+      return IntersectCase.OUTSIDE;
+    final IntersectCase excludedSect = excluded.intersect(r);
+    if (excludedSect == IntersectCase.CONTAINS)
+      return IntersectCase.OUTSIDE;
+    if (baseSect == IntersectCase.CONTAINS && excludedSect == IntersectCase.OUTSIDE)
+      return IntersectCase.CONTAINS;
+    return IntersectCase.INTERSECTS;
+  }
+
+  @Override
+  public Rectangle boundingRectangle() {
+    return base.boundingRectangle();
+  }
+
+  /** The base's; the excluded areas are pruned as the grid is traversed. */
+  @Override
+  public Rectangle[] getCoverBoxes() {
+    return base.getCoverBoxes();
+  }
+
+  @Override
+  public double area() {
+    throw new UnsupportedOperationException("The area of a difference isn't known from its shapes'");
+  }
+
+  /** The base's. */
+  @Override
+  public Point2D centroid() {
+    return base.centroid();
+  }
+
+  /** The shape whose grid cells are covered. */
+  public Geometry2D getBase() {
+    return base;
+  }
+
+  public Geometry2D getExcluded() {
+    return excluded;
+  }
+
+  @Override
+  public String toString() {
+    return "DifferenceGeom{base=" + base + ", excluded=" + excluded + '}';
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) return true;
+    if (!(o instanceof DifferenceGeom)) return false;
+    DifferenceGeom that = (DifferenceGeom) o;
+    return base.equals(that.base) && excluded.equals(that.excluded);
+  }
+
+  @Override
+  public int hashCode() {
+    return 31 * base.hashCode() + excluded.hashCode();
+  }
+}
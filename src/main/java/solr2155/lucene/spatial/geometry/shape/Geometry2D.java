@@ -32,9 +32,24 @@ public interface Geometry2D {
    * @param p
    */
   public boolean contains(Point2D p);
+
+  /**
+   * Does the shape contain the point x,y; like {@link #contains(Point2D)} without a Point2D
+   */
+  public boolean contains(double x, double y);
+
+  /**
+   * Tests the first n points xs[i],ys[i] at once, as {@link #contains(double, double)} would each; for callers with
+   * many points to test, such as the leaves of a grid cell.
+   * @param out receives the indexes of the points contained, in order; at least n long.
+   * @return how many were contained
+   */
+  public int containsAll(double[] xs, double[] ys, int n, int[] out);
   
   /**
-   * Return the area
+   * Return the area, in square degrees of the lon-lat plane.  Shapes bounded by distances on the sphere may throw
+   * UnsupportedOperationException, having no closed form in those; so may intersections and differences of shapes,
+   * since where shapes overlap isn't known from their areas.
    */
   public double area();
   
@@ -49,6 +64,12 @@ public interface Geometry2D {
    */
   public Rectangle boundingRectangle();
 
+  /**
+   * The rectangles whose grid cells are searched for the shape; usually just its {@link #boundingRectangle()}, but a
+   * shape crossing the dateline is better covered from either side of it than by a box spanning all longitudes.
+   */
+  public Rectangle[] getCoverBoxes();
+
   /**
    * Returns information about how this shape intersects the given rectangle
    * @param r
@@ -0,0 +1,162 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package solr2155.lucene.spatial.geometry.shape;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * The points in all of a collection of Geometry2D objects; the counterpart of {@link MultiGeom}.  A rectangle is
+ * OUTSIDE if it's outside any of them and CONTAINS if all of them contain it, so a grid cell is decided without
+ * testing its points wherever the members agree.  IntersectionGeoms are equal if their members are, in any order.
+ */
+public class IntersectionGeom implements Geometry2D {
+  private final Geometry2D[] geoms;
+  private final Rectangle bbox;
+  private final boolean empty;//the members' bounding boxes don't overlap
+  private final Set<Geometry2D> members;//for equals
+
+  public IntersectionGeom(Collection<Geometry2D> geoms) {
+    if (geoms.isEmpty())
+      throw new IllegalArgumentException("An IntersectionGeom needs a geometry");
+    this.geoms = geoms.toArray(new Geometry2D[geoms.size()]);
+    this.members = new HashSet<Geometry2D>(geoms);
+    double minX = -Double.MAX_VALUE, minY = -Double.MAX_VALUE;
+    double maxX = Double.MAX_VALUE, maxY = Double.MAX_VALUE;
+    for (Geometry2D geom : this.geoms) {
+      final Rectangle r = geom.boundingRectangle();
+      minX = Math.max(minX, r.getMinX());
+      minY = Math.max(minY, r.getMinY());
+      maxX = Math.min(maxX, r.getMaxX());
+      maxY = Math.min(maxY, r.getMaxY());
+    }
+    empty = minX > maxX || minY > maxY;
+    bbox = empty ? new Rectangle(minX, minY, minX, minY) : new Rectangle(minX, minY, maxX, maxY);
+  }
+
+  @Override
+  public boolean contains(Point2D p) {
+    return contains(p.getX(), p.getY());
+  }
+
+  /** By the members alone: a member's bounding box can be a little tight, as a circle's is. */
+  @Override
+  public boolean contains(double x, double y) {
+    for (Geometry2D geom : geoms) {
+      if (!geom.contains(x, y))
+        return false;
+    }
+    return true;
+  }
+
+  /** The first member's points, narrowed by each of the rest. */
+  @Override
+  public int containsAll(double[] xs, double[] ys, int n, int[] out) {
+    int count = geoms[0].containsAll(xs, ys, n, out);
+    for (int g = 1; g < geoms.length && count > 0; g++) {
+      final Geometry2D geom = geoms[g];
+      int kept = 0;
+      for (int k = 0; k < count; k++) {
+        final int i = out[k];
+        if (geom.contains(xs[i], ys[i]))
+          out[kept++] = i;
+      }
+      count = kept;
+    }
+    return count;
+  }
+
+  @Override
+  public IntersectCase intersect(Rectangle r) {
+    if (empty || bbox.intersect(r) == IntersectCase.OUTSIDE)
+      return IntersectCase.OUTSIDE;
+    IntersectCase result = IntersectCase.CONTAINS;
+    for (Geometry2D geom : geoms) {
+      final IntersectCase sect = geom.intersect(r);
+      if (sect == IntersectCase.OUTSIDE)
+        return IntersectCase.OUTSIDE;//short circuit
+      if (sect == IntersectCase.INTERSECTS)
+        result = IntersectCase.INTERSECTS;
+    }
+    return result;
+  }
+
+  @Override
+  public Rectangle boundingRectangle() {
+    return bbox;
+  }
+
+  /**
+   * Where the members' cover boxes overlap, so that a member crossing the dateline only narrows the others'; the empty
+   * bounding box if they don't.
+   */
+  @Override
+  public Rectangle[] getCoverBoxes() {
+    List<Rectangle> boxes = Arrays.asList(geoms[0].getCoverBoxes());
+    for (int g = 1; g < geoms.length && !boxes.isEmpty(); g++) {
+      final List<Rectangle> narrowed = new ArrayList<Rectangle>(boxes.size());
+      for (Rectangle a : boxes) {
+        for (Rectangle b : geoms[g].getCoverBoxes()) {
+          final double minX = Math.max(a.getMinX(), b.getMinX()), minY = Math.max(a.getMinY(), b.getMinY());
+          final double maxX = Math.min(a.getMaxX(), b.getMaxX()), maxY = Math.min(a.getMaxY(), b.getMaxY());
+          if (minX <= maxX && minY <= maxY)
+            narrowed.add(new Rectangle(minX, minY, maxX, maxY));
+        }
+      }
+      boxes = narrowed;
+    }
+    return boxes.isEmpty() ? new Rectangle[]{bbox} : boxes.toArray(new Rectangle[boxes.size()]);
+  }
+
+  @Override
+  public double area() {
+    throw new UnsupportedOperationException("The area of an intersection isn't known from its members'");
+  }
+
+  /** The center of the bounding box. */
+  @Override
+  public Point2D centroid() {
+    return new Point2D((bbox.getMinX() + bbox.getMaxX()) / 2, (bbox.getMinY() + bbox.getMaxY()) / 2);
+  }
+
+  /** The number of members. */
+  public int size() {
+    return geoms.length;
+  }
+
+  @Override
+  public String toString() {
+    return "IntersectionGeom{" + Arrays.toString(geoms) + '}';
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) return true;
+    if (!(o instanceof IntersectionGeom)) return false;
+    return members.equals(((IntersectionGeom) o).members);
+  }
+
+  @Override
+  public int hashCode() {
+    return members.hashCode();
+  }
+}
@@ -17,27 +17,230 @@
 
 package solr2155.lucene.spatial.geometry.shape;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
 
 /**
- * A collection of Geometry2D objects.
+ * A collection of Geometry2D objects; a point or rectangle is in it if it's in any of them.
+ * <p/>
+ * The members' bounding boxes are packed bottom-up into an R-tree by Sort-Tile-Recursive (sorted into vertical slices
+ * by x, then by y within each slice), so that a test only visits the members near the point or rectangle.  The union
+ * bounding box is the root's.
+ * <p/>
+ * MultiGeoms are equal if their members are, in any order, so that a filter on one can be cached.
  */
 public class MultiGeom implements Geometry2D {
-  private final Collection<Geometry2D> geoms;
+  private static final int NODE_CAPACITY = 16;
+
+  private final Geometry2D[] geoms;//in tree order
+  //the boxes of the geoms, then of each level of nodes above them, up to the root
+  private final double[] minXs, minYs, maxXs, maxYs;
+  private final int[] levelStarts;//offsets of each level into the boxes, and the end
+  private final Rectangle bbox;
+  private final Rectangle[] coverBoxes;
+  private final Set<Geometry2D> members;//for equals
 
   public MultiGeom(Collection<Geometry2D> geoms) {
-    this.geoms = geoms;
+    final int n = geoms.size();
+    if (n == 0)
+      throw new IllegalArgumentException("A MultiGeom needs a geometry");
+    final Geometry2D[] input = geoms.toArray(new Geometry2D[n]);
+    members = new HashSet<Geometry2D>(Arrays.asList(input));
+    final Rectangle[] rects = new Rectangle[n];
+    final double[] centerXs = new double[n], centerYs = new double[n];
+    Integer[] order = new Integer[n];
+    for (int i = 0; i < n; i++) {
+      rects[i] = input[i].boundingRectangle();
+      centerXs[i] = (rects[i].getMinX() + rects[i].getMaxX()) / 2;
+      centerYs[i] = (rects[i].getMinY() + rects[i].getMaxY()) / 2;
+      order[i] = i;
+    }
+    //STR: slices of x, each by y
+    Arrays.sort(order, new Comparator<Integer>() {
+      public int compare(Integer o1, Integer o2) {
+        return Double.compare(centerXs[o1], centerXs[o2]);
+      }
+    });
+    final int leaves = (n + NODE_CAPACITY - 1) / NODE_CAPACITY;
+    final int sliceSize = (int) Math.ceil(Math.sqrt(leaves)) * NODE_CAPACITY;
+    final Comparator<Integer> byY = new Comparator<Integer>() {
+      public int compare(Integer o1, Integer o2) {
+        return Double.compare(centerYs[o1], centerYs[o2]);
+      }
+    };
+    for (int start = 0; start < n; start += sliceSize) {
+      Arrays.sort(order, start, Math.min(n, start + sliceSize), byY);
+    }
+
+    //the levels' sizes
+    int boxes = n, levels = 1;
+    for (int size = n; size > 1; levels++) {
+      size = (size + NODE_CAPACITY - 1) / NODE_CAPACITY;
+      boxes += size;
+    }
+    this.geoms = new Geometry2D[n];
+    minXs = new double[boxes];
+    minYs = new double[boxes];
+    maxXs = new double[boxes];
+    maxYs = new double[boxes];
+    levelStarts = new int[levels + 1];
+    for (int i = 0; i < n; i++) {
+      final Rectangle r = rects[order[i]];
+      this.geoms[i] = input[order[i]];
+      minXs[i] = r.getMinX();
+      minYs[i] = r.getMinY();
+      maxXs[i] = r.getMaxX();
+      maxYs[i] = r.getMaxY();
+    }
+    levelStarts[1] = n;
+    for (int level = 1; level < levels; level++) {
+      final int childStart = levelStarts[level - 1], childEnd = levelStarts[level];
+      int node = childEnd;
+      for (int child = childStart; child < childEnd; child += NODE_CAPACITY, node++) {
+        double minX = Double.MAX_VALUE, minY = Double.MAX_VALUE;
+        double maxX = -Double.MAX_VALUE, maxY = -Double.MAX_VALUE;
+        for (int c = child, end = Math.min(childEnd, child + NODE_CAPACITY); c < end; c++) {
+          minX = Math.min(minX, minXs[c]);
+          minY = Math.min(minY, minYs[c]);
+          maxX = Math.max(maxX, maxXs[c]);
+          maxY = Math.max(maxY, maxYs[c]);
+        }
+        minXs[node] = minX;
+        minYs[node] = minY;
+        maxXs[node] = maxX;
+        maxYs[node] = maxY;
+      }
+      levelStarts[level + 1] = node;
+    }
+    bbox = new Rectangle(minXs[boxes - 1], minYs[boxes - 1], maxXs[boxes - 1], maxYs[boxes - 1]);
+    coverBoxes = coverBoxes(input);
+  }
+
+  /**
+   * The members' cover boxes, so that a member crossing the dateline doesn't stretch the union's over all longitudes.
+   * Past {@link #NODE_CAPACITY} of them, as many grid cells would be searched from their corners, they're merged into
+   * one box on each side of the prime meridian.
+   */
+  private static Rectangle[] coverBoxes(Geometry2D[] geoms) {
+    final List<Rectangle> boxes = new ArrayList<Rectangle>(geoms.length);
+    for (Geometry2D geom : geoms) {
+      boxes.addAll(Arrays.asList(geom.getCoverBoxes()));
+    }
+    if (boxes.size() <= NODE_CAPACITY)
+      return boxes.toArray(new Rectangle[boxes.size()]);
+    Rectangle west = null, east = null;
+    for (Rectangle r : boxes) {
+      if (r.getMinX() + r.getMaxX() < 0)
+        west = union(west, r);
+      else
+        east = union(east, r);
+    }
+    return west == null ? new Rectangle[]{east} : east == null ? new Rectangle[]{west} : new Rectangle[]{west, east};
+  }
+
+  private static Rectangle union(Rectangle a, Rectangle b) {
+    if (a == null)
+      return b;
+    return new Rectangle(Math.min(a.getMinX(), b.getMinX()), Math.min(a.getMinY(), b.getMinY()),
+        Math.max(a.getMaxX(), b.getMaxX()), Math.max(a.getMaxY(), b.getMaxY()));
+  }
+
+  /** The level of the root; its box is the last. */
+  private int rootLevel() {
+    return levelStarts.length - 2;
   }
 
   @Override
   public boolean contains(Point2D p) {
-    for (Geometry2D geom : geoms) {
-      if (geom.contains(p))
+    return contains(p.getX(), p.getY());
+  }
+
+  @Override
+  public boolean contains(double x, double y) {
+    return contains(rootLevel(), minXs.length - 1, x, y);
+  }
+
+  /** Whether a member under the box at the level contains the point. */
+  private boolean contains(int level, int box, double x, double y) {
+    if (x < minXs[box] || x > maxXs[box] || y < minYs[box] || y > maxYs[box])
+      return false;
+    if (level == 0)
+      return geoms[box].contains(x, y);
+    final int first = levelStarts[level - 1] + (box - levelStarts[level]) * NODE_CAPACITY;
+    for (int child = first, end = Math.min(levelStarts[level], first + NODE_CAPACITY); child < end; child++) {
+      if (contains(level - 1, child, x, y))
         return true;
     }
     return false;
   }
 
+  /**
+   * The members whose boxes overlap the points' bounding box are found in the tree once; each point is then tested
+   * against just those.
+   */
+  @Override
+  public int containsAll(double[] xs, double[] ys, int n, int[] out) {
+    if (n == 0)
+      return 0;
+    double minX = xs[0], minY = ys[0], maxX = minX, maxY = minY;
+    for (int i = 1; i < n; i++) {
+      minX = Math.min(minX, xs[i]);
+      maxX = Math.max(maxX, xs[i]);
+      minY = Math.min(minY, ys[i]);
+      maxY = Math.max(maxY, ys[i]);
+    }
+    final Members members = new Members();
+    collect(rootLevel(), minXs.length - 1, minX, minY, maxX, maxY, members);
+    final int[] ids = members.ids;
+    final int size = members.size;
+    int count = 0;
+    for (int i = 0; i < n; i++) {
+      final double x = xs[i], y = ys[i];
+      for (int m = 0; m < size; m++) {
+        final int id = ids[m];
+        if (x >= minXs[id] && x <= maxXs[id] && y >= minYs[id] && y <= maxYs[id] && geoms[id].contains(x, y)) {
+          out[count++] = i;
+          break;
+        }
+      }
+    }
+    return count;
+  }
+
+  /** Adds the members under the box at the level whose boxes overlap the given one. */
+  private void collect(int level, int box, double minX, double minY, double maxX, double maxY, Members members) {
+    if (minX > maxXs[box] || maxX < minXs[box] || minY > maxYs[box] || maxY < minYs[box])
+      return;
+    if (level == 0) {
+      members.add(box);
+      return;
+    }
+    final int first = levelStarts[level - 1] + (box - levelStarts[level]) * NODE_CAPACITY;
+    for (int child = first, end = Math.min(levelStarts[level], first + NODE_CAPACITY); child < end; child++) {
+      collect(level - 1, child, minX, minY, maxX, maxY, members);
+    }
+  }
+
+  /** A growable list of member indexes. */
+  private static final class Members {
+    int[] ids = new int[NODE_CAPACITY];
+    int size;
+
+    void add(int id) {
+      if (size == ids.length) {
+        int[] grown = new int[size * 2];
+        System.arraycopy(ids, 0, grown, 0, size);
+        ids = grown;
+      }
+      ids[size++] = id;
+    }
+  }
+
   @Override
   public double area() {
     throw new UnsupportedOperationException("TODO unimplemented");//TODO
@@ -50,37 +253,55 @@ public class MultiGeom implements Geometry2D {
 
   @Override
   public Rectangle boundingRectangle() {
-    double minX = Double.MAX_VALUE;
-    double minY = Double.MAX_VALUE;
-    double maxX = Double.MIN_VALUE;
-    double maxY = Double.MIN_VALUE;
-    for (Geometry2D geom : geoms) {
-      Rectangle r = geom.boundingRectangle();
-      minX = Math.min(minX,r.getMinX());
-      minY = Math.min(minY,r.getMinY());
-      maxX = Math.max(maxX,r.getMaxX());
-      maxY = Math.max(maxY,r.getMaxY());
-    }
-    return new Rectangle(minX,minY,maxX,maxY);
+    return bbox;
+  }
+
+  /** The members' cover boxes, merged if there are many; see {@link #coverBoxes(Geometry2D[])}. */
+  @Override
+  public Rectangle[] getCoverBoxes() {
+    return coverBoxes.clone();
   }
 
+  /**
+   * CONTAINS if any member contains the rectangle, OUTSIDE if every member is outside it, else INTERSECTS.  Members
+   * whose bounding box is outside it aren't visited.
+   */
   @Override
   public IntersectCase intersect(Rectangle r) {
-    boolean allOutside = true;
-    boolean allContains = true;
-    for (Geometry2D geom : geoms) {
-      IntersectCase sect = geom.intersect(r);
-      if (sect != IntersectCase.OUTSIDE)
-        allOutside = false;
-      if (sect != IntersectCase.CONTAINS)
-        allContains = false;
-      if (!allContains && !allOutside)
-        return IntersectCase.INTERSECTS;//short circuit
-    }
-    if (allOutside)
+    return intersect(rootLevel(), minXs.length - 1, r);
+  }
+
+  private IntersectCase intersect(int level, int box, Rectangle r) {
+    if (r.getMinX() > maxXs[box] || r.getMaxX() < minXs[box] || r.getMinY() > maxYs[box] || r.getMaxY() < minYs[box])
       return IntersectCase.OUTSIDE;
-    if (allContains)
-      return IntersectCase.CONTAINS;
-    return IntersectCase.INTERSECTS;
+    if (level == 0)
+      return geoms[box].intersect(r);
+    IntersectCase result = IntersectCase.OUTSIDE;
+    final int first = levelStarts[level - 1] + (box - levelStarts[level]) * NODE_CAPACITY;
+    for (int child = first, end = Math.min(levelStarts[level], first + NODE_CAPACITY); child < end; child++) {
+      IntersectCase sect = intersect(level - 1, child, r);
+      if (sect == IntersectCase.CONTAINS)
+        return IntersectCase.CONTAINS;//short circuit
+      if (sect == IntersectCase.INTERSECTS)
+        result = IntersectCase.INTERSECTS;
+    }
+    return result;
+  }
+
+  /** The number of members. */
+  public int size() {
+    return geoms.length;
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) return true;
+    if (!(o instanceof MultiGeom)) return false;
+    return members.equals(((MultiGeom) o).members);
+  }
+
+  @Override
+  public int hashCode() {
+    return members.hashCode();
   }
 }
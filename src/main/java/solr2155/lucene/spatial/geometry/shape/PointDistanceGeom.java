@@ -21,18 +21,53 @@ import org.apache.lucene.spatial.DistanceUtils;
 
 /**
  * An ellipse-like geometry based on the haversine formula with a supplied earth radius.
+ * <p/>
+ * {@link #contains(Point2D)} first rejects points whose latitude alone is too far, then accepts those within an
+ * inscribed lat-lon box centered on the point, both without trig; only the rest are measured, by the same haversine
+ * as {@link #calcDistanceToPoint(double, double)}.
  */
 public final class PointDistanceGeom implements Geometry2D {
+  /** Radians (or degrees of latitude) added to the distance before deeming something beyond it, for rounding. */
+  private static final double OUTSIDE_MARGIN = 1e-9;
+  /**
+   * Degrees taken off the inscribed box, so that it can't accept what the haversine wouldn't; about 100 times the
+   * haversine's rounding of a latitude near the poles, where the degrees' radians lose the most.
+   */
+  private static final double INNER_MARGIN = 1e-12;
+
   private final Point2D point;
   private final double distance;
   private final double radius;
   private transient Rectangle enclosingBox1, enclosingBox2;//calculated & cached (2nd is usually null)
 
+  //derived from the point & distance, for contains()
+  private final double latRad, lonRad;//the center, as Math.toRadians gives it for the haversine
+  private final double maxLatGap;//degrees, beyond which a point's latitude alone is too far
+  private final double innerLatGap, innerLonGap;//degrees; half the sides of an inscribed box (0 if none)
+
   public PointDistanceGeom(double lat, double lon, double dist, double radius) {
     this.point = new Point2D(lon,lat);
     this.distance = dist;
     this.radius = radius;
     calcEnclosingBoxes();
+
+    this.latRad = Math.toRadians(lat);
+    this.lonRad = Math.toRadians(lon);
+    final double latRadCos = Math.cos(latRad);
+    final double angle = Math.min(dist / radius, Math.PI);
+    final double hsinAngle = Math.sin(angle * 0.5);
+    this.maxLatGap = angle * DistanceUtils.RADIANS_TO_DEGREES + OUTSIDE_MARGIN;
+    //The box's points have a haversine of at most sin^2(h/2) + cos(lat) * max(cos(lat2)) * sin^2(w/2) for latitude
+    // half-side h and longitude half-side w; pick h = angle/sqrt(2) and then the widest w keeping that within sin^2(angle/2).
+    final double h = angle * Math.sqrt(0.5);
+    final double hsinH = Math.sin(h * 0.5);
+    final double nearestEquator = latRad - h > 0 ? latRad - h : latRad + h < 0 ? latRad + h : 0;
+    final double cosFactor = latRadCos * Math.cos(nearestEquator);
+    final double sinSqHalfW = cosFactor <= 0 ? 1 : (hsinAngle * hsinAngle - hsinH * hsinH) / cosFactor;
+    final double w = sinSqHalfW >= 1 ? Math.PI : 2 * Math.asin(Math.sqrt(sinSqHalfW));
+    //shrunk a little so that rounding can't accept what the haversine wouldn't
+    this.innerLatGap = Math.max(0, h * DistanceUtils.RADIANS_TO_DEGREES * (1 - 1e-9) - INNER_MARGIN);
+    this.innerLonGap = Math.max(0, w * DistanceUtils.RADIANS_TO_DEGREES * (1 - 1e-9) - INNER_MARGIN);
   }
 
   public double getDistance() {
@@ -88,12 +123,59 @@ public final class PointDistanceGeom implements Geometry2D {
 
   @Override
   public boolean contains(Point2D p) {
-    return calcDistanceToPoint(p) <= distance;
+    return contains(p.getX(), p.getY());
+  }
+
+  @Override
+  public boolean contains(double x, double y) {
+    final double latGap = Math.abs(y - point.getY());
+    if (latGap > maxLatGap)
+      return false;
+    if (latGap <= innerLatGap) {
+      double lonGap = Math.abs(x - point.getX());
+      if (lonGap > 180)
+        lonGap = 360 - lonGap;
+      if (lonGap <= innerLonGap)
+        return true;
+    }
+    //the distance rather than the haversine, so that a point right on the edge is decided as it always was
+    return calcDistanceToPoint(x, y) <= distance;
+  }
+
+  /** Like {@link #contains(double, double)} for each point, with the fields read once. */
+  @Override
+  public int containsAll(double[] xs, double[] ys, int n, int[] out) {
+    final double px = point.getX(), py = point.getY();
+    final double maxLatGap = this.maxLatGap, innerLatGap = this.innerLatGap, innerLonGap = this.innerLonGap;
+    int count = 0;
+    for (int i = 0; i < n; i++) {
+      final double x = xs[i], y = ys[i];
+      final double latGap = Math.abs(y - py);
+      if (latGap > maxLatGap)
+        continue;
+      if (latGap <= innerLatGap) {
+        double lonGap = Math.abs(x - px);
+        if (lonGap > 180)
+          lonGap = 360 - lonGap;
+        if (lonGap <= innerLonGap) {
+          out[count++] = i;
+          continue;
+        }
+      }
+      if (calcDistanceToPoint(x, y) <= distance)
+        out[count++] = i;
+    }
+    return count;
   }
 
+  /** Like {@link DistanceUtils#haversine(double, double, double, double, double)}, with the same rounding. */
   public double calcDistanceToPoint(Point2D p) {
-    return DistanceUtils.haversine(Math.toRadians(point.getY()), Math.toRadians(point.getX()),
-        Math.toRadians(p.getY()), Math.toRadians(p.getX()), radius);
+    return calcDistanceToPoint(p.getX(), p.getY());
+  }
+
+  public double calcDistanceToPoint(double x, double y) {
+    //exactly as it always was computed, so that points near the edge are decided the same
+    return DistanceUtils.haversine(latRad, lonRad, Math.toRadians(y), Math.toRadians(x), radius);
   }
 
   @Override
@@ -114,6 +196,12 @@ public final class PointDistanceGeom implements Geometry2D {
     return new Rectangle(-180,enclosingBox1.getMinY(),180,enclosingBox1.getMaxY());
   }
 
+  /** The enclosing boxes, two if the circle crosses the dateline. */
+  @Override
+  public Rectangle[] getCoverBoxes() {
+    return enclosingBox2 == null ? new Rectangle[]{enclosingBox1} : new Rectangle[]{enclosingBox1, enclosingBox2};
+  }
+
   public Rectangle getEnclosingBox1() {
     return enclosingBox1;
   }
@@ -131,11 +219,51 @@ public final class PointDistanceGeom implements Geometry2D {
     }
 
     //do quick check to see if all corners are within this circle for CONTAINS
-    if (contains(r.getMinPoint()) && contains(r.getMaxPoint())
-            && contains(r.getMaxXMinYPoint())
-            && contains(r.getMinXMaxYPoint()))
+    if (contains(r.getMinX(), r.getMinY()) && contains(r.getMaxX(), r.getMaxY())
+            && contains(r.getMaxX(), r.getMinY())
+            && contains(r.getMinX(), r.getMaxY()))
       return IntersectCase.CONTAINS;
-    return IntersectCase.INTERSECTS;//needn't actually intersect; this is a good guess
+    //the corners of the bounding box are often beyond the circle
+    if (angleToRectangle(point.getY(), point.getX(), r) > distance / radius + OUTSIDE_MARGIN)
+      return IntersectCase.OUTSIDE;
+    return IntersectCase.INTERSECTS;
+  }
+
+  /**
+   * The central angle in radians between a lat-lon in degrees and the nearest point of the rectangle (0 if it's
+   * within).  If the rectangle spans the point's longitude then that's just the latitude difference.  Otherwise the
+   * nearest point lies on the rectangle's nearer meridian edge, where the cosine of the angle is
+   * A&middot;sin(&phi;) + B&middot;cos(&phi;), with A = sin(lat) and B = cos(lat)&middot;cos(&Delta;lon); that peaks at
+   * &phi; = atan2(A,B), or else at one of the edge's ends.
+   */
+  public static double angleToRectangle(double lat, double lon, Rectangle r) {
+    if (lon >= r.getMinX() && lon <= r.getMaxX()) {
+      final double latGap = lat < r.getMinY() ? r.getMinY() - lat : lat > r.getMaxY() ? lat - r.getMaxY() : 0;
+      return latGap * DistanceUtils.DEGREES_TO_RADIANS;
+    }
+    final double toWest = (r.getMinX() - lon + 360) % 360;
+    final double toEast = (lon - r.getMaxX() + 360) % 360;
+    final double lonGapRad = Math.min(toWest, toEast) * DistanceUtils.DEGREES_TO_RADIANS;
+    final double latRad = lat * DistanceUtils.DEGREES_TO_RADIANS;
+    final double latRadCos = Math.cos(latRad);
+    final double minLatRad = r.getMinY() * DistanceUtils.DEGREES_TO_RADIANS;
+    final double maxLatRad = r.getMaxY() * DistanceUtils.DEGREES_TO_RADIANS;
+    final double peakLatRad = Math.atan2(Math.sin(latRad), latRadCos * Math.cos(lonGapRad));
+    final double hav;
+    if (peakLatRad >= minLatRad && peakLatRad <= maxLatRad) {
+      hav = hav(latRad, latRadCos, peakLatRad, lonGapRad);
+    } else {
+      //compared by haversine, which is accurate for small angles, unlike the cosine
+      hav = Math.min(hav(latRad, latRadCos, minLatRad, lonGapRad), hav(latRad, latRadCos, maxLatRad, lonGapRad));
+    }
+    return 2 * Math.asin(Math.sqrt(Math.min(hav, 1)));
+  }
+
+  /** The haversine of the central angle between two points given in radians. */
+  private static double hav(double latRad, double latRadCos, double lat2Rad, double lonGapRad) {
+    final double hsinLat = Math.sin((lat2Rad - latRad) * 0.5);
+    final double hsinLon = Math.sin(lonGapRad * 0.5);
+    return hsinLat * hsinLat + latRadCos * Math.cos(lat2Rad) * hsinLon * hsinLon;
   }
 
   @Override
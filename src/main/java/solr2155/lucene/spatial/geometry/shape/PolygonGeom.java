@@ -0,0 +1,315 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package solr2155.lucene.spatial.geometry.shape;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * A polygon in (planar) lon-lat degrees, with optional holes; it shouldn't cross the dateline.  A point is inside by
+ * the even-odd rule, so each ring after the first is a hole.
+ * <p/>
+ * The edges are indexed by horizontal bands of latitude, each listing the edges overlapping it ordered by their
+ * greatest x.  {@link #contains(Point2D)} casts a ray east through only its band's edges, stopping at the first edge
+ * lying wholly west of the point.  {@link #intersect(Rectangle)} only tests the edges of the bands the rectangle
+ * overlaps; if none of them cross it then the rectangle is wholly inside or outside, as is its center.  An edge is
+ * listed in each band it spans, so the bands are halved until the listings are no more than
+ * {@link #MAX_BAND_ENTRIES_PER_EDGE} per edge; long edges then get fewer, taller bands.
+ * <p/>
+ * Polygons are equal if their rings' edges are, so that a filter on one can be cached.
+ */
+public class PolygonGeom implements Geometry2D {
+
+  private static final int EDGES_PER_BAND = 4;
+  private static final int MAX_BANDS = 1 << 16;
+  static final int MAX_BAND_ENTRIES_PER_EDGE = 8;
+
+  //edges, each with y1 <= y2
+  private final double[] x1s, y1s, x2s, y2s;
+  private final double[] maxXs;
+  private final Rectangle bbox;
+  private final double area;
+  private final Point2D centroid;
+  private final int hash;
+
+  private final int numBands;
+  private final double bandHeight;
+  private final int[] bandStarts;//numBands + 1 offsets into bandEdges
+  private final int[] bandEdges;//within a band, by descending maxXs
+
+  /**
+   * @param rings each ring's vertices as x,y (lon,lat) pairs; the first is the shell and the others are holes.  A
+   * ring needn't repeat its first vertex at the end.
+   */
+  public PolygonGeom(double[]... rings) {
+    if (rings.length == 0)
+      throw new IllegalArgumentException("A polygon needs a ring");
+    int numEdges = 0;
+    for (double[] ring : rings) {
+      int n = numVertices(ring);
+      if (n < 3)
+        throw new IllegalArgumentException("A polygon ring needs at least 3 vertices");
+      numEdges += n;
+    }
+    x1s = new double[numEdges];
+    y1s = new double[numEdges];
+    x2s = new double[numEdges];
+    y2s = new double[numEdges];
+    maxXs = new double[numEdges];
+    double minX = Double.POSITIVE_INFINITY, minY = Double.POSITIVE_INFINITY;
+    double maxX = Double.NEGATIVE_INFINITY, maxY = Double.NEGATIVE_INFINITY;
+    double areaSum = 0, cxSum = 0, cySum = 0;
+    int e = 0;
+    for (int r = 0; r < rings.length; r++) {
+      final double[] ring = rings[r];
+      final int n = numVertices(ring);
+      double ringArea2 = 0, ringCx6 = 0, ringCy6 = 0;//twice the signed area; 6 * area * centroid
+      for (int i = 0; i < n; i++, e++) {
+        final int j = (i + 1) % n;
+        final double ax = ring[i * 2], ay = ring[i * 2 + 1];
+        final double bx = ring[j * 2], by = ring[j * 2 + 1];
+        final double cross = ax * by - bx * ay;
+        ringArea2 += cross;
+        ringCx6 += (ax + bx) * cross;
+        ringCy6 += (ay + by) * cross;
+        if (ay <= by) {
+          x1s[e] = ax; y1s[e] = ay; x2s[e] = bx; y2s[e] = by;
+        } else {
+          x1s[e] = bx; y1s[e] = by; x2s[e] = ax; y2s[e] = ay;
+        }
+        maxXs[e] = Math.max(ax, bx);
+        minX = Math.min(minX, ax);
+        maxX = Math.max(maxX, ax);
+        minY = Math.min(minY, ay);
+        maxY = Math.max(maxY, ay);
+      }
+      //the shell adds and holes subtract, whatever their orientation
+      final double sign = (r == 0) == (ringArea2 >= 0) ? 1 : -1;
+      areaSum += sign * ringArea2 / 2;
+      cxSum += sign * ringCx6 / 6;
+      cySum += sign * ringCy6 / 6;
+    }
+    bbox = new Rectangle(minX, minY, maxX, maxY);
+    area = areaSum;
+    centroid = areaSum == 0 ? bbox.centroid() : new Point2D(cxSum / areaSum, cySum / areaSum);
+
+    hash = 31 * (31 * (31 * Arrays.hashCode(x1s) + Arrays.hashCode(y1s)) + Arrays.hashCode(x2s))
+        + Arrays.hashCode(y2s);
+
+    //index the edges by band, each band's edges by descending maxX
+    int bands = Math.max(1, Math.min(MAX_BANDS, numEdges / EDGES_PER_BAND));
+    if (maxY <= minY)
+      bands = 1;
+    final long maxEntries = (long) numEdges * MAX_BAND_ENTRIES_PER_EDGE;
+    while (bands > 1 && countBandEntries(bands) > maxEntries) {
+      bands /= 2;
+    }
+    numBands = bands;
+    bandHeight = bandHeight(bands);
+    Integer[] byMaxX = new Integer[numEdges];
+    for (int i = 0; i < numEdges; i++) {
+      byMaxX[i] = i;
+    }
+    Arrays.sort(byMaxX, new Comparator<Integer>() {
+      public int compare(Integer o1, Integer o2) {
+        return Double.compare(maxXs[o2], maxXs[o1]);
+      }
+    });
+    bandStarts = new int[numBands + 1];
+    for (int i = 0; i < numEdges; i++) {
+      for (int b = band(y1s[i]), end = band(y2s[i]); b <= end; b++) {
+        bandStarts[b + 1]++;
+      }
+    }
+    for (int b = 0; b < numBands; b++) {
+      bandStarts[b + 1] += bandStarts[b];
+    }
+    bandEdges = new int[bandStarts[numBands]];
+    final int[] fill = Arrays.copyOf(bandStarts, numBands);
+    for (Integer edge : byMaxX) {
+      for (int b = band(y1s[edge]), end = band(y2s[edge]); b <= end; b++) {
+        bandEdges[fill[b]++] = edge;
+      }
+    }
+  }
+
+  private static int numVertices(double[] ring) {
+    if (ring.length % 2 != 0)
+      throw new IllegalArgumentException("A polygon ring needs x,y pairs");
+    int n = ring.length / 2;
+    if (n > 1 && ring[0] == ring[ring.length - 2] && ring[1] == ring[ring.length - 1])
+      n--;//closed
+    return n;
+  }
+
+  private double bandHeight(int bands) {
+    return bands == 1 ? Double.POSITIVE_INFINITY : (bbox.getMaxY() - bbox.getMinY()) / bands;
+  }
+
+  /** The listings of edges in bands, were there this many bands. */
+  private long countBandEntries(int bands) {
+    final double height = bandHeight(bands);
+    long entries = 0;
+    for (int e = 0; e < y1s.length; e++) {
+      entries += band(y2s[e], height, bands) - band(y1s[e], height, bands) + 1;
+    }
+    return entries;
+  }
+
+  /** The band of a y, clamped to the bands. */
+  private int band(double y) {
+    return band(y, bandHeight, numBands);
+  }
+
+  private int band(double y, double height, int bands) {
+    final int b = (int) ((y - bbox.getMinY()) / height);
+    return b < 0 ? 0 : b >= bands ? bands - 1 : b;
+  }
+
+  @Override
+  public boolean contains(Point2D p) {
+    return contains(p.getX(), p.getY());
+  }
+
+  @Override
+  public boolean contains(double x, double y) {
+    if (x < bbox.getMinX() || x > bbox.getMaxX() || y < bbox.getMinY() || y > bbox.getMaxY())
+      return false;
+    final int band = band(y);
+    boolean inside = false;
+    for (int i = bandStarts[band], end = bandStarts[band + 1]; i < end; i++) {
+      final int e = bandEdges[i];
+      if (maxXs[e] < x)
+        break;//this and the rest are west of the point
+      if (y < y1s[e] || y >= y2s[e])
+        continue;//half-open, so that a vertex on the ray counts once
+      final double crossX = x1s[e] + (y - y1s[e]) * (x2s[e] - x1s[e]) / (y2s[e] - y1s[e]);
+      if (crossX > x)
+        inside = !inside;
+    }
+    return inside;
+  }
+
+  @Override
+  public int containsAll(double[] xs, double[] ys, int n, int[] out) {
+    int count = 0;
+    for (int i = 0; i < n; i++) {
+      if (contains(xs[i], ys[i]))
+        out[count++] = i;
+    }
+    return count;
+  }
+
+  @Override
+  public IntersectCase intersect(Rectangle r) {
+    if (r.getMinX() > bbox.getMaxX() || r.getMaxX() < bbox.getMinX()
+        || r.getMinY() > bbox.getMaxY() || r.getMaxY() < bbox.getMinY())
+      return IntersectCase.OUTSIDE;
+    if (r.getMinX() <= bbox.getMinX() && r.getMaxX() >= bbox.getMaxX()
+        && r.getMinY() <= bbox.getMinY() && r.getMaxY() >= bbox.getMaxY())
+      return IntersectCase.INTERSECTS;//the polygon is within the rectangle
+    for (int b = band(r.getMinY()), endBand = band(r.getMaxY()); b <= endBand; b++) {
+      for (int i = bandStarts[b], end = bandStarts[b + 1]; i < end; i++) {
+        final int e = bandEdges[i];
+        if (maxXs[e] < r.getMinX())
+          break;//this and the rest are west of the rectangle
+        if (crosses(e, r))
+          return IntersectCase.INTERSECTS;
+      }
+    }
+    //no edge crosses the rectangle, so it's wholly inside or outside
+    return contains((r.getMinX() + r.getMaxX()) / 2, (r.getMinY() + r.getMaxY()) / 2)
+        ? IntersectCase.CONTAINS : IntersectCase.OUTSIDE;
+  }
+
+  /** Whether the edge has any point within the rectangle, by clipping it to the rectangle (Liang-Barsky). */
+  private boolean crosses(int e, Rectangle r) {
+    final double x1 = x1s[e], y1 = y1s[e];
+    final double dx = x2s[e] - x1, dy = y2s[e] - y1;
+    double t0 = 0, t1 = 1;
+    //x >= minX
+    if (dx == 0) {
+      if (x1 < r.getMinX() || x1 > r.getMaxX())
+        return false;
+    } else {
+      double ta = (r.getMinX() - x1) / dx, tb = (r.getMaxX() - x1) / dx;
+      if (dx < 0) {
+        double tmp = ta; ta = tb; tb = tmp;
+      }
+      t0 = Math.max(t0, ta);
+      t1 = Math.min(t1, tb);
+      if (t0 > t1)
+        return false;
+    }
+    if (dy == 0)
+      return y1 >= r.getMinY() && y1 <= r.getMaxY();
+    //dy > 0 since y1 <= y2
+    t0 = Math.max(t0, (r.getMinY() - y1) / dy);
+    t1 = Math.min(t1, (r.getMaxY() - y1) / dy);
+    return t0 <= t1;
+  }
+
+  @Override
+  public double area() {
+    return area;
+  }
+
+  @Override
+  public Point2D centroid() {
+    return centroid;
+  }
+
+  @Override
+  public Rectangle boundingRectangle() {
+    return bbox;
+  }
+
+  @Override
+  public Rectangle[] getCoverBoxes() {
+    return new Rectangle[]{bbox};
+  }
+
+  /** The number of edges of all rings. */
+  public int getNumEdges() {
+    return x1s.length;
+  }
+
+  /** The listings of edges in bands. */
+  int getNumBandEntries() {
+    return bandEdges.length;
+  }
+
+  @Override
+  public String toString() {
+    return "PolygonGeom{edges=" + x1s.length + ", bbox=" + bbox + '}';
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) return true;
+    if (!(o instanceof PolygonGeom)) return false;
+    PolygonGeom that = (PolygonGeom) o;
+    return hash == that.hash && Arrays.equals(x1s, that.x1s) && Arrays.equals(y1s, that.y1s)
+        && Arrays.equals(x2s, that.x2s) && Arrays.equals(y2s, that.y2s);
+  }
+
+  @Override
+  public int hashCode() {
+    return hash;
+  }
+}
@@ -26,35 +26,36 @@ package solr2155.lucene.spatial.geometry.shape;
  * release.</font>
  */
 public class Rectangle implements Geometry2D {
-  private final Point2D ptMin, ptMax;
+  private final double minX, minY, maxX, maxY;
   
   public Rectangle() {
-    ptMin=new Point2D(-1, 1);
-    ptMax=new Point2D(1, 1);
+    this(-1, 1, 1, 1);
   }
   
   public Rectangle(Point2D ptMin, Point2D ptMax) {
-    assert ptMin.getX() <= ptMax.getX() && ptMin.getY() <= ptMax.getY();
-    this.ptMin=new Point2D(ptMin);
-    this.ptMax=new Point2D(ptMax);
+    this(ptMin.getX(), ptMin.getY(), ptMax.getX(), ptMax.getY());
   }
   
-  public Rectangle(double x1, double y1, double x2, double y2) {
-    this(new Point2D(x1,y1),new Point2D(x2,y2));
+  public Rectangle(double minX, double minY, double maxX, double maxY) {
+    assert minX <= maxX && minY <= maxY;
+    this.minX = minX;
+    this.minY = minY;
+    this.maxX = maxX;
+    this.maxY = maxY;
   }
 
   @Override
   public String toString() {
-    return "[" + ptMin + "," + ptMax + "]";
+    return "[" + getMinPoint() + "," + getMaxPoint() + "]";
   }
 
   public double area() {
-    return (ptMax.getX() - ptMin.getX()) * (ptMax.getY() - ptMin.getY());
+    return (maxX - minX) * (maxY - minY);
   }
 
   public Point2D centroid() {
-    return new Point2D( (ptMin.getX() + ptMax.getX()) / 2,
-                  (ptMin.getY() + ptMax.getY()) / 2);
+    return new Point2D( (minX + maxX) / 2,
+                  (minY + maxY) / 2);
   }
 
   @Override
@@ -62,50 +63,67 @@ public class Rectangle implements Geometry2D {
     return this;
   }
 
+  @Override
+  public Rectangle[] getCoverBoxes() {
+    return new Rectangle[]{this};
+  }
+
   public boolean contains(Point2D p) {
-    return p.getX() >= ptMin.getX() && 
-      p.getX() <= ptMax.getX() &&
-      p.getY() >= ptMin.getY() &&
-      p.getY() <= ptMax.getY();
+    return contains(p.getX(), p.getY());
+  }
+
+  public boolean contains(double x, double y) {
+    return x >= minX && x <= maxX && y >= minY && y <= maxY;
+  }
+
+  public int containsAll(double[] xs, double[] ys, int n, int[] out) {
+    final double minX = this.minX, minY = this.minY, maxX = this.maxX, maxY = this.maxY;
+    int count = 0;
+    for (int i = 0; i < n; i++) {
+      final double x = xs[i], y = ys[i];
+      if (x >= minX && x <= maxX && y >= minY && y <= maxY)
+        out[count++] = i;
+    }
+    return count;
   }
 
   public Point2D getMaxPoint() {
-    return ptMax;
+    return new Point2D(maxX, maxY);
   }
 
   public Point2D getMinPoint() {
-    return ptMin;
+    return new Point2D(minX, minY);
   }
 
   public Point2D getMinXMaxYPoint() {
-    return new Point2D(getMinX(), getMaxY());
+    return new Point2D(minX, maxY);
   }
 
   public Point2D getMaxXMinYPoint() {
-    return new Point2D(getMaxX(), getMinY());
+    return new Point2D(maxX, minY);
   }
 
   public double getMinX() {
-    return ptMin.getX();
+    return minX;
   }
 
   public double getMinY() {
-    return ptMin.getY();
+    return minY;
   }
 
   public double getMaxX() {
-    return ptMax.getX();
+    return maxX;
   }
 
   public double getMaxY() {
-    return ptMax.getY();
+    return maxY;
   }
 
   public IntersectCase intersect(Rectangle r) {
-    if (getMaxY() >= r.getMaxY() && getMinY() <= r.getMinY() && getMaxX() >= r.getMaxX() && getMinX() <= r.getMinX())
+    if (maxY >= r.maxY && minY <= r.minY && maxX >= r.maxX && minX <= r.minX)
       return IntersectCase.CONTAINS;
-    if (  (getMinY() > r.getMaxY() || getMaxY() < r.getMinY()) ||
-          (getMinX() > r.getMaxX() || getMaxX() < r.getMinX())
+    if (  (minY > r.maxY || maxY < r.minY) ||
+          (minX > r.maxX || maxX < r.minX)
             )
       return IntersectCase.OUTSIDE;
     return IntersectCase.INTERSECTS;
@@ -115,8 +133,15 @@ public class Rectangle implements Geometry2D {
   public int hashCode() {
     final int prime = 31;
     int result = 1;
-    result = prime * result + ((ptMax == null) ? 0 : ptMax.hashCode());
-    result = prime * result + ((ptMin == null) ? 0 : ptMin.hashCode());
+    long temp;
+    temp = Double.doubleToLongBits(maxX);
+    result = prime * result + (int) (temp ^ (temp >>> 32));
+    temp = Double.doubleToLongBits(maxY);
+    result = prime * result + (int) (temp ^ (temp >>> 32));
+    temp = Double.doubleToLongBits(minX);
+    result = prime * result + (int) (temp ^ (temp >>> 32));
+    temp = Double.doubleToLongBits(minY);
+    result = prime * result + (int) (temp ^ (temp >>> 32));
     return result;
   }
 
@@ -129,17 +154,10 @@ public class Rectangle implements Geometry2D {
     if (getClass() != obj.getClass())
       return false;
     Rectangle other = (Rectangle) obj;
-    if (ptMax == null) {
-      if (other.ptMax != null)
-        return false;
-    } else if (!ptMax.equals(other.ptMax))
-      return false;
-    if (ptMin == null) {
-      if (other.ptMin != null)
-        return false;
-    } else if (!ptMin.equals(other.ptMin))
-      return false;
-    return true;
+    return Double.doubleToLongBits(minX) == Double.doubleToLongBits(other.minX)
+        && Double.doubleToLongBits(minY) == Double.doubleToLongBits(other.minY)
+        && Double.doubleToLongBits(maxX) == Double.doubleToLongBits(other.maxX)
+        && Double.doubleToLongBits(maxY) == Double.doubleToLongBits(other.maxY);
   }
 
 }
@@ -0,0 +1,174 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package solr2155.lucene.spatial.geometry.shape;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Parses the <a href="http://en.wikipedia.org/wiki/Well-known_text">WKT</a> of a shape in lon-lat degrees (x y) into a
+ * {@link Geometry2D}.  Supported are:
+ * <ul>
+ * <li>POINT (x y): a {@link PointDistanceGeom} if there's a buffer, else just the point.</li>
+ * <li>POLYGON ((x y, ...), (x y, ...)): a {@link PolygonGeom}; rings after the first are holes.  No buffer.</li>
+ * <li>MULTIPOLYGON (((x y, ...)), ...): a {@link MultiGeom} of them.  No buffer.</li>
+ * <li>LINESTRING (x y, ...): requires a buffer; a {@link CorridorGeom} of the points within it of the line.</li>
+ * </ul>
+ * Polygons shouldn't cross the dateline.  Problems are reported by an {@link IllegalArgumentException}.
+ */
+public class WktShapeParser {
+
+  private final String wkt;
+  private final double bufferKm;
+  private final double radius;
+  private int pos;
+
+  private WktShapeParser(String wkt, double bufferKm, double radius) {
+    this.wkt = wkt;
+    this.bufferKm = bufferKm;
+    this.radius = radius;
+  }
+
+  /**
+   * @param bufferKm the distance around a POINT or LINESTRING, or 0 for none.
+   * @param radius the radius of the earth, in the units of bufferKm.
+   */
+  public static Geometry2D parse(String wkt, double bufferKm, double radius) {
+    WktShapeParser parser = new WktShapeParser(wkt, bufferKm, radius);
+    Geometry2D shape = parser.shape();
+    parser.skipSpace();
+    if (parser.pos < wkt.length())
+      throw parser.error("Unexpected text");
+    return shape;
+  }
+
+  private Geometry2D shape() {
+    String type = word().toUpperCase(Locale.ENGLISH);
+    if (type.equals("POINT")) {
+      double[] point = coords();
+      if (point.length != 2)
+        throw error("Expected one point");
+      if (bufferKm > 0)
+        return new PointDistanceGeom(point[1], point[0], bufferKm, radius);
+      return new Rectangle(point[0], point[1], point[0], point[1]);
+    } else if (type.equals("POLYGON")) {
+      noBuffer(type);
+      return polygon();
+    } else if (type.equals("MULTIPOLYGON")) {
+      noBuffer(type);
+      List<Geometry2D> polygons = new ArrayList<Geometry2D>();
+      expect('(');
+      do {
+        polygons.add(polygon());
+      } while (accept(','));
+      expect(')');
+      return new MultiGeom(polygons);
+    } else if (type.equals("LINESTRING")) {
+      if (bufferKm <= 0)
+        throw error("A LINESTRING needs a buffer");
+      return new CorridorGeom(coords(), bufferKm, radius);
+    }
+    throw error("Unsupported shape " + type);
+  }
+
+  private void noBuffer(String type) {
+    if (bufferKm > 0)
+      throw error("A " + type + " can't have a buffer");
+  }
+
+  private PolygonGeom polygon() {
+    List<double[]> rings = new ArrayList<double[]>();
+    expect('(');
+    do {
+      rings.add(coords());
+    } while (accept(','));
+    expect(')');
+    try {
+      return new PolygonGeom(rings.toArray(new double[rings.size()][]));
+    } catch (IllegalArgumentException e) {
+      throw error(e.getMessage());
+    }
+  }
+
+  /** "(x y, x y, ...)" as interleaved x,y. */
+  private double[] coords() {
+    expect('(');
+    double[] coords = new double[16];
+    int n = 0;
+    do {
+      if (n + 2 > coords.length) {
+        double[] grown = new double[coords.length * 2];
+        System.arraycopy(coords, 0, grown, 0, n);
+        coords = grown;
+      }
+      coords[n++] = number();
+      coords[n++] = number();
+    } while (accept(','));
+    expect(')');
+    double[] result = new double[n];
+    System.arraycopy(coords, 0, result, 0, n);
+    return result;
+  }
+
+  private void skipSpace() {
+    while (pos < wkt.length() && Character.isWhitespace(wkt.charAt(pos)))
+      pos++;
+  }
+
+  private String word() {
+    skipSpace();
+    int start = pos;
+    while (pos < wkt.length() && Character.isLetter(wkt.charAt(pos)))
+      pos++;
+    if (start == pos)
+      throw error("Expected a shape name");
+    return wkt.substring(start, pos);
+  }
+
+  private double number() {
+    skipSpace();
+    int start = pos;
+    while (pos < wkt.length() && "+-.0123456789eE".indexOf(wkt.charAt(pos)) >= 0)
+      pos++;
+    try {
+      return Double.parseDouble(wkt.substring(start, pos));
+    } catch (NumberFormatException e) {
+      pos = start;
+      throw error("Expected a number");
+    }
+  }
+
+  private boolean accept(char c) {
+    skipSpace();
+    if (pos < wkt.length() && wkt.charAt(pos) == c) {
+      pos++;
+      return true;
+    }
+    return false;
+  }
+
+  private void expect(char c) {
+    if (!accept(c))
+      throw error("Expected '" + c + "'");
+  }
+
+  private IllegalArgumentException error(String msg) {
+    return new IllegalArgumentException(msg + " at " + pos + " of WKT: " + wkt);
+  }
+}
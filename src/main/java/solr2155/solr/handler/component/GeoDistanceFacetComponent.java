@@ -0,0 +1,176 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package solr2155.solr.handler.component;
+
+import org.apache.solr.common.SolrException;
+import org.apache.solr.common.params.SolrParams;
+import org.apache.solr.common.params.SpatialParams;
+import org.apache.solr.common.util.NamedList;
+import org.apache.solr.common.util.SimpleOrderedMap;
+import org.apache.solr.core.SolrCore;
+import org.apache.solr.handler.component.ResponseBuilder;
+import org.apache.solr.handler.component.SearchComponent;
+import org.apache.solr.search.DocIterator;
+import org.apache.solr.search.DocSet;
+import solr2155.solr.search.function.GeoHashValueSource;
+import solr2155.solr.search.function.distance.DistanceMemo;
+import solr2155.solr.search.function.distance.HaversineMultiConstFunction;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Counts the documents matching the query within each of several distances of a point, in one pass over the matching
+ * documents using the points held by {@link GeoHashValueSource}.  A document is as near as its nearest point.
+ * Register it and add it to a search handler's last-components:
+ * <pre>
+ *   &lt;searchComponent name="geofacet" class="solr2155.solr.handler.component.GeoDistanceFacetComponent"/&gt;
+ * </pre>
+ * Then request geofacet=true&amp;geofacet.ranges=1,5,10,25,50 (in kilometers).  The field and point are
+ * geofacet.sfield and geofacet.pt, defaulting to sfield and pt as used by geodist().  The counts are cumulative ("within
+ * 5km" includes those within 1km) and are returned in ascending order under "geofacet_counts".  The distances already
+ * calculated in the request, such as while sorting by geodist() with the same field and point, are taken from its
+ * {@link DistanceMemo}.
+ * <p/>
+ * Distributed search isn't supported.
+ */
+public class GeoDistanceFacetComponent extends SearchComponent {
+
+  public static final String COMPONENT_NAME = "geofacet";
+
+  public static final String GEOFACET = "geofacet";
+  public static final String RANGES = GEOFACET + ".ranges";
+  public static final String FIELD = GEOFACET + "." + SpatialParams.FIELD;
+  public static final String POINT = GEOFACET + "." + SpatialParams.POINT;
+
+  @Override
+  public void prepare(ResponseBuilder rb) throws IOException {
+    SolrParams params = rb.req.getParams();
+    if (!params.getBool(GEOFACET, false))
+      return;
+    rb.setNeedDocSet(true);
+
+    HaversineMultiConstFunction function = DistanceMemo.register(rb.req, GEOFACET);
+    rb.req.getContext().put(GeoDistanceFacetComponent.class, function);
+  }
+
+  @Override
+  public void process(ResponseBuilder rb) throws IOException {
+    HaversineMultiConstFunction function =
+        (HaversineMultiConstFunction) rb.req.getContext().get(GeoDistanceFacetComponent.class);
+    if (function == null)
+      return;
+
+    String[] ranges = parseRanges(rb.req.getParams().get(RANGES));
+    double[] havs = new double[ranges.length];//ascending
+    for (int i = 0; i < ranges.length; i++) {
+      havs[i] = HaversineMultiConstFunction.distanceToHav(Double.parseDouble(ranges[i]));
+    }
+
+    int[] counts = count(rb.getResults().docSet, DistanceMemo.register(rb.req, function), havs);
+
+    NamedList<Integer> geofacetCounts = new SimpleOrderedMap<Integer>();
+    for (int i = 0; i < ranges.length; i++) {
+      geofacetCounts.add(ranges[i], counts[i]);
+    }
+    rb.rsp.add("geofacet_counts", geofacetCounts);
+  }
+
+  /** Parses the comma separated distances, which mustn't be negative, returning them sorted by value. */
+  private static String[] parseRanges(String rangesArg) {
+    if (rangesArg == null)
+      throw new SolrException(SolrException.ErrorCode.BAD_REQUEST, RANGES + " is not specified");
+    String[] ranges = rangesArg.split(",");
+    final double[] values = new double[ranges.length];
+    for (int i = 0; i < ranges.length; i++) {
+      ranges[i] = ranges[i].trim();
+      try {
+        values[i] = Double.parseDouble(ranges[i]);
+      } catch (NumberFormatException e) {
+        throw new SolrException(SolrException.ErrorCode.BAD_REQUEST, "Bad " + RANGES + ": " + rangesArg);
+      }
+      if (!(values[i] >= 0))//also NaN
+        throw new SolrException(SolrException.ErrorCode.BAD_REQUEST, RANGES + " must not be negative: " + rangesArg);
+    }
+    //sort the strings by their value; there are only a few
+    for (int i = 1; i < ranges.length; i++) {
+      for (int j = i; j > 0 && values[j - 1] > values[j]; j--) {
+        double value = values[j];
+        values[j] = values[j - 1];
+        values[j - 1] = value;
+        String range = ranges[j];
+        ranges[j] = ranges[j - 1];
+        ranges[j - 1] = range;
+      }
+    }
+    return ranges;
+  }
+
+  /**
+   * Counts the docs within each of the ascending haversine thresholds, cumulatively.  Those in the memo aren't
+   * calculated again; the others are put into it.
+   */
+  private static int[] count(DocSet docs, DistanceMemo memo, double[] havs) throws IOException {
+    final int[] counts = new int[havs.length + 1];//the last is beyond all
+    final double maxHav = havs.length == 0 ? -1 : havs[havs.length - 1];
+    for (DocIterator iter = docs.iterator(); iter.hasNext(); ) {
+      final int index = memo.findOrCalculate(iter.nextDoc());
+      if (memo.point(index) < 0)
+        continue;//no points
+      final double hav = memo.hav(index);
+      if (hav > maxHav) {
+        counts[havs.length]++;
+        continue;
+      }
+      int i = Arrays.binarySearch(havs, hav);
+      if (i < 0)
+        i = -i - 1;
+      else while (i > 0 && havs[i - 1] == hav)//an equal distance is within; find the first
+        i--;
+      counts[i]++;
+    }
+    for (int i = 1; i < havs.length; i++) {
+      counts[i] += counts[i - 1];
+    }
+    return counts;
+  }
+
+  /////////////////////////////////////////////
+  ///  SolrInfoMBean
+  ////////////////////////////////////////////
+
+  @Override
+  public String getDescription() {
+    return "Counts matching documents within distances of a point";
+  }
+
+  @Override
+  public String getVersion() {
+    return SolrCore.version;
+  }
+
+  @Override
+  public String getSourceId() {
+    return null;
+  }
+
+  @Override
+  public String getSource() {
+    return null;
+  }
+}
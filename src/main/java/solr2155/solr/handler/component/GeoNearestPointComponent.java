@@ -0,0 +1,134 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package solr2155.solr.handler.component;
+
+import org.apache.lucene.document.Document;
+import org.apache.solr.common.params.SolrParams;
+import org.apache.solr.common.params.SpatialParams;
+import org.apache.solr.common.util.NamedList;
+import org.apache.solr.common.util.SimpleOrderedMap;
+import org.apache.solr.core.SolrCore;
+import org.apache.solr.handler.component.ResponseBuilder;
+import org.apache.solr.handler.component.SearchComponent;
+import org.apache.solr.schema.SchemaField;
+import org.apache.solr.search.DocIterator;
+import org.apache.solr.search.DocList;
+import org.apache.solr.search.SolrIndexSearcher;
+import solr2155.solr.schema.GeoHashField;
+import solr2155.solr.search.function.GeoHashValueSource;
+import solr2155.solr.search.function.distance.DistanceMemo;
+import solr2155.solr.search.function.distance.HaversineMultiConstFunction;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Set;
+
+/**
+ * Returns each returned document's point nearest to a point, and its distance, for multi-valued
+ * {@link GeoHashField}s.  The distances and points already calculated in the request, such as while sorting by
+ * geodist() with the same field and point, are taken from its {@link DistanceMemo}.  Register it and
+ * add it to a search handler's last-components:
+ * <pre>
+ *   &lt;searchComponent name="geonear" class="solr2155.solr.handler.component.GeoNearestPointComponent"/&gt;
+ * </pre>
+ * Then request geonear=true.  The field and point are geonear.sfield and geonear.pt, defaulting to sfield and pt as
+ * used by geodist().  The response has a "geonear" list keyed by the documents' unique keys, each with the "point" as
+ * "lat,lon" and its "distance" in kilometers; documents without a point are omitted.
+ */
+public class GeoNearestPointComponent extends SearchComponent {
+
+  public static final String COMPONENT_NAME = "geonear";
+
+  public static final String GEONEAR = "geonear";
+  public static final String FIELD = GEONEAR + "." + SpatialParams.FIELD;
+  public static final String POINT = GEONEAR + "." + SpatialParams.POINT;
+
+  @Override
+  public void prepare(ResponseBuilder rb) throws IOException {
+    SolrParams params = rb.req.getParams();
+    if (!params.getBool(GEONEAR, false))
+      return;
+
+    HaversineMultiConstFunction function = DistanceMemo.register(rb.req, GEONEAR);
+    rb.req.getContext().put(GeoNearestPointComponent.class, function);
+  }
+
+  @Override
+  public void process(ResponseBuilder rb) throws IOException {
+    HaversineMultiConstFunction function =
+        (HaversineMultiConstFunction) rb.req.getContext().get(GeoNearestPointComponent.class);
+    if (function == null)
+      return;
+
+    SolrIndexSearcher searcher = rb.req.getSearcher();
+    DistanceMemo memo = DistanceMemo.register(rb.req, function);
+    GeoHashValueSource.GeoHashDocValues points = function.getValueSource().getValues(null, searcher.getReader());
+
+    SchemaField keyField = rb.req.getSchema().getUniqueKeyField();
+    Set<String> keyFieldNames = keyField == null ? null : Collections.singleton(keyField.getName());
+
+    NamedList<NamedList> nearest = new SimpleOrderedMap<NamedList>();
+    DocList docs = rb.getResults().docList;
+    for (DocIterator iter = docs.iterator(); iter.hasNext(); ) {
+      final int doc = iter.nextDoc();
+      final int index = memo.findOrCalculate(doc);
+      final int pointIdx = memo.point(index);
+      final double distance = memo.distance(index);
+      if (pointIdx < 0)
+        continue;
+
+      NamedList<Object> entry = new SimpleOrderedMap<Object>();
+      entry.add("point", points.pointLats()[pointIdx] + "," + points.pointLons()[pointIdx]);
+      entry.add("distance", distance);
+
+      String key;
+      if (keyField == null) {
+        key = Integer.toString(doc);
+      } else {
+        Document document = searcher.doc(doc, keyFieldNames);
+        key = keyField.getType().toExternal(document.getFieldable(keyField.getName()));
+      }
+      nearest.add(key, entry);
+    }
+    rb.rsp.add("geonear", nearest);
+  }
+
+  /////////////////////////////////////////////
+  ///  SolrInfoMBean
+  ////////////////////////////////////////////
+
+  @Override
+  public String getDescription() {
+    return "Returns the nearest point of each returned document and its distance";
+  }
+
+  @Override
+  public String getVersion() {
+    return SolrCore.version;
+  }
+
+  @Override
+  public String getSourceId() {
+    return null;
+  }
+
+  @Override
+  public String getSource() {
+    return null;
+  }
+}
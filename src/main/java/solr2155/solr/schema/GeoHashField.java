@@ -44,14 +44,17 @@ import org.apache.solr.search.SpatialOptions;
 import org.apache.solr.search.function.ValueSource;
 import solr2155.lucene.spatial.geohash.GeoHashPrefixFilter;
 import solr2155.lucene.spatial.geohash.GridNode;
+import solr2155.lucene.spatial.geometry.shape.DatelineRectangle;
 import solr2155.lucene.spatial.geometry.shape.Geometry2D;
 import solr2155.lucene.spatial.geometry.shape.MultiGeom;
 import solr2155.lucene.spatial.geometry.shape.PointDistanceGeom;
+import solr2155.lucene.spatial.geometry.shape.Rectangle;
 import solr2155.solr.search.function.GeoHashValueSource;
 
 import java.io.IOException;
 import java.io.Reader;
-import java.util.Arrays;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -102,25 +105,46 @@ public class GeoHashField extends FieldType implements SpatialQueryable {
     return getStringSort(field, top);
   }
 
+  /**
+   * A circle (or with bbox, its enclosing box) around the point, or around each of several points separated by ';'.
+   * Several are filtered in one pass over the grid, by their union.
+   */
   public Query createSpatialQuery(QParser parser, SpatialOptions options) {
-    double [] point = new double[0];
+    double[][] points;
     try {
-      point = DistanceUtils.parsePointDouble(null, options.pointStr, 2);
+      points = parsePoints(options.pointStr);
     } catch (InvalidGeoException e) {
       throw new SolrException(SolrException.ErrorCode.BAD_REQUEST, e);
     }
-    PointDistanceGeom pDistGeo = new PointDistanceGeom(
-            point[0],point[1],options.distance,options.radius);
-    Geometry2D shape = pDistGeo;
-    if (options.bbox) {
-      shape = pDistGeo.getEnclosingBox1();
-      Geometry2D shape2 = pDistGeo.getEnclosingBox2();
-      if (shape2 != null)
-        shape = new MultiGeom(Arrays.asList(shape,shape2));
+    List<Geometry2D> shapes = new ArrayList<Geometry2D>(points.length);
+    for (double[] point : points) {
+      PointDistanceGeom pDistGeo = new PointDistanceGeom(
+              point[0],point[1],options.distance,options.radius);
+      if (options.bbox) {
+        Rectangle box1 = pDistGeo.getEnclosingBox1();
+        Rectangle box2 = pDistGeo.getEnclosingBox2();
+        if (box2 == null)
+          shapes.add(box1);
+        else
+          shapes.add(new DatelineRectangle(box1.getMinX(), box1.getMinY(), box2.getMaxX(), box2.getMaxY()));
+      } else {
+        shapes.add(pDistGeo);
+      }
     }
+    Geometry2D shape = shapes.size() == 1 ? shapes.get(0) : new MultiGeom(shapes);
     return new SolrConstantScoreQuery(new GeoHashPrefixFilter(options.field.getName(),shape,gridReferenceSystem));
   }
 
+  /** Parses one or more "lat,lon" points separated by ';'. */
+  public static double[][] parsePoints(String pointStr) throws InvalidGeoException {
+    String[] pointStrs = pointStr.split(";");
+    double[][] points = new double[pointStrs.length][];
+    for (int i = 0; i < pointStrs.length; i++) {
+      points[i] = DistanceUtils.parseLatitudeLongitude(pointStrs[i].trim());
+    }
+    return points;
+  }
+
   @Override
   public void write(TextResponseWriter writer, String name, Fieldable f)
           throws IOException {
@@ -0,0 +1,244 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package solr2155.solr.search;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.TermDocs;
+import org.apache.lucene.search.DocIdSet;
+import org.apache.lucene.search.Filter;
+import org.apache.lucene.spatial.DistanceUtils;
+import org.apache.lucene.util.OpenBitSet;
+import org.apache.solr.search.SolrIndexReader;
+import solr2155.lucene.TermsEnumCompatibility;
+import solr2155.lucene.spatial.geohash.GridNode;
+import solr2155.lucene.spatial.geometry.shape.PointDistanceGeom;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.TreeSet;
+import java.util.WeakHashMap;
+
+/**
+ * Matches the k documents nearest to a point, a document being as near as the nearest of its points.  Grid cells are
+ * visited nearest first by the least distance any point in them could have; cells holding indexed terms are
+ * subdivided, and the leaf terms of small cells are scanned.  The search stops once the k-th nearest document found is
+ * no farther than the next cell, so the cost depends on k and the density of points near the center rather than on the
+ * size of the index.
+ * <p/>
+ * The nearest documents are a property of the whole index, so they are found using the top level reader (when given a
+ * {@link SolrIndexReader}) and then divided amongst its segments.
+ */
+public class GeoHashKnnFilter extends Filter {
+
+  private static final int GRIDLEN_SCAN_THRESHOLD = 4;//>= 1
+  private final String fieldName;//interned
+  private final double lat, lon;
+  private final int k;
+  private final GridNode.GridReferenceSystem gridReferenceSystem;
+
+  //derived from lat & lon:
+  private final double latRad, lonRad, latRadCos;
+
+  /** The result for the last top level reader; weak so that the filter doesn't retain it in the filterCache. */
+  private final Map<IndexReader,OpenBitSet> topResult = new WeakHashMap<IndexReader,OpenBitSet>();
+
+  public GeoHashKnnFilter(String fieldName, double lat, double lon, int k,
+                          GridNode.GridReferenceSystem gridReferenceSystem) {
+    this.fieldName = fieldName.intern();
+    this.lat = lat;
+    this.lon = lon;
+    this.k = k;
+    this.gridReferenceSystem = gridReferenceSystem;
+    this.latRad = lat * DistanceUtils.DEGREES_TO_RADIANS;
+    this.lonRad = lon * DistanceUtils.DEGREES_TO_RADIANS;
+    this.latRadCos = Math.cos(latRad);
+  }
+
+  @Override
+  public DocIdSet getDocIdSet(IndexReader reader) throws IOException {
+    int base = 0;
+    IndexReader top = reader;
+    while (top instanceof SolrIndexReader && ((SolrIndexReader) top).getParent() != null) {
+      base += ((SolrIndexReader) top).getBase();
+      top = ((SolrIndexReader) top).getParent();
+    }
+    final OpenBitSet topBits = getTopDocs(top);
+    if (top == reader)
+      return topBits;
+    final OpenBitSet bits = new OpenBitSet(reader.maxDoc());
+    final int end = base + reader.maxDoc();
+    for (int doc = topBits.nextSetBit(base); doc >= 0 && doc < end; doc = topBits.nextSetBit(doc + 1)) {
+      bits.fastSet(doc - base);
+    }
+    return bits;
+  }
+
+  private synchronized OpenBitSet getTopDocs(IndexReader top) throws IOException {
+    OpenBitSet bits = topResult.get(top);
+    if (bits == null) {
+      bits = findNearest(top);
+      topResult.clear();
+      topResult.put(top, bits);
+    }
+    return bits;
+  }
+
+  private OpenBitSet findNearest(IndexReader reader) throws IOException {
+    final OpenBitSet bits = new OpenBitSet(reader.maxDoc());
+    final TermsEnumCompatibility termsEnum = new TermsEnumCompatibility(reader, fieldName);//Lucene 4 compatibility wrapper
+    if (k <= 0 || termsEnum.next() == null)
+      return bits;
+    final TermDocs termDocs = reader.termDocs();
+    final double[] xy = new double[4];//a leaf's x,y (and scratch), reused
+    final int maxLen = gridReferenceSystem.getPrecision();
+
+    final TreeSet<DocDistance> nearest = new TreeSet<DocDistance>();//at most k
+    final Map<Integer,DocDistance> nearestByDoc = new HashMap<Integer,DocDistance>();
+
+    final PriorityQueue<Cell> cells = new PriorityQueue<Cell>();
+    for (GridNode node : gridReferenceSystem.getSubNodes((GridNode) null)) {
+      cells.add(new Cell(node));
+    }
+    while (!cells.isEmpty()) {
+      final Cell cell = cells.poll();
+      if (nearest.size() == k && nearest.last().angle <= cell.minAngle)
+        break;//nothing in this or any remaining cell can be nearer
+      if (termsEnum.seek(cell.node.getTermVal()) != TermsEnumCompatibility.SeekStatus.FOUND)
+        continue;//no points in this cell
+
+      if (cell.node.length() < maxLen - GRIDLEN_SCAN_THRESHOLD) {
+        for (GridNode subNode : cell.node.getSubNodes()) {
+          cells.add(new Cell(subNode));
+        }
+        continue;
+      }
+      //traverse all leaf terms within this cell
+      for (Term term = termsEnum.term(); term != null && cell.node.contains(term.text()); term = termsEnum.next()) {
+        if (term.text().length() < maxLen)//not a leaf
+          continue;
+        gridReferenceSystem.decodeXY(term.text(), xy);
+        final double angle = angle(xy[1], xy[0]);
+        if (nearest.size() == k && angle >= nearest.last().angle)
+          continue;
+        termDocs.seek(term);
+        while (termDocs.next()) {
+          collect(termDocs.doc(), angle, nearest, nearestByDoc);
+        }
+      }
+    }
+    termDocs.close();
+    termsEnum.close();
+
+    for (DocDistance docDistance : nearest) {
+      bits.fastSet(docDistance.doc);
+    }
+    return bits;
+  }
+
+  private void collect(int doc, double angle, TreeSet<DocDistance> nearest, Map<Integer,DocDistance> nearestByDoc) {
+    DocDistance docDistance = nearestByDoc.get(doc);
+    if (docDistance != null) {//another of the doc's points
+      if (angle >= docDistance.angle)
+        return;
+      nearest.remove(docDistance);
+      docDistance.angle = angle;
+      nearest.add(docDistance);
+      return;
+    }
+    if (nearest.size() == k && angle >= nearest.last().angle)
+      return;
+    docDistance = new DocDistance(doc, angle);
+    nearest.add(docDistance);
+    nearestByDoc.put(doc, docDistance);
+    if (nearest.size() > k) {
+      //a doc no longer amongst the nearest can't re-enter except by a nearer point, so forget it
+      final DocDistance farthest = nearest.last();
+      nearest.remove(farthest);
+      nearestByDoc.remove(farthest.doc);
+    }
+  }
+
+  /** The central angle in radians between the center and the given lat-lon in degrees. */
+  private double angle(double pLat, double pLon) {
+    final double pLatRad = pLat * DistanceUtils.DEGREES_TO_RADIANS;
+    final double hsinLat = Math.sin((pLatRad - latRad) * 0.5);
+    final double hsinLon = Math.sin((pLon * DistanceUtils.DEGREES_TO_RADIANS - lonRad) * 0.5);
+    final double hav = hsinLat * hsinLat + latRadCos * Math.cos(pLatRad) * hsinLon * hsinLon;
+    return 2 * Math.asin(Math.sqrt(Math.min(hav, 1)));
+  }
+
+  private class Cell implements Comparable<Cell> {
+    final GridNode node;
+    final double minAngle;
+
+    Cell(GridNode node) {
+      this.node = node;
+      this.minAngle = PointDistanceGeom.angleToRectangle(lat, lon, node.getRectangle());
+    }
+
+    public int compareTo(Cell o) {
+      return Double.compare(minAngle, o.minAngle);
+    }
+  }
+
+  private static class DocDistance implements Comparable<DocDistance> {
+    final int doc;
+    double angle;
+
+    DocDistance(int doc, double angle) {
+      this.doc = doc;
+      this.angle = angle;
+    }
+
+    public int compareTo(DocDistance o) {
+      final int cmp = Double.compare(angle, o.angle);
+      return cmp != 0 ? cmp : (doc < o.doc ? -1 : (doc == o.doc ? 0 : 1));
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "GeoKnnFilter{fieldName='" + fieldName + '\'' + ", lat=" + lat + ", lon=" + lon + ", k=" + k + '}';
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) return true;
+    if (o == null || getClass() != o.getClass()) return false;
+
+    GeoHashKnnFilter that = (GeoHashKnnFilter) o;
+
+    return fieldName.equals(that.fieldName) && lat == that.lat && lon == that.lon && k == that.k;
+  }
+
+  @Override
+  public int hashCode() {
+    int result = fieldName.hashCode();
+    long temp;
+    temp = Double.doubleToLongBits(lat);
+    result = 31 * result + (int) (temp ^ (temp >>> 32));
+    temp = Double.doubleToLongBits(lon);
+    result = 31 * result + (int) (temp ^ (temp >>> 32));
+    result = 31 * result + k;
+    return result;
+  }
+
+}
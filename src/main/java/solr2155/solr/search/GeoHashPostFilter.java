@@ -0,0 +1,109 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package solr2155.solr.search;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.solr.search.DelegatingCollector;
+import org.apache.solr.search.ExtendedQueryBase;
+import org.apache.solr.search.PostFilter;
+import org.apache.solr.search.SolrConstantScoreQuery;
+import org.apache.solr.search.SolrIndexSearcher;
+import solr2155.lucene.spatial.geohash.GeoHashPrefixFilter;
+import solr2155.lucene.spatial.geohash.GridNode;
+import solr2155.lucene.spatial.geometry.shape.Geometry2D;
+import solr2155.solr.search.function.GeoHashValueSource;
+
+import java.io.IOException;
+
+/**
+ * Tests the documents that matched everything else against a shape, rather than traversing the grid for all the
+ * documents in it as {@link GeoHashPrefixFilter} does.  A document matches if any of its points, as held in memory by
+ * {@link GeoHashValueSource}, is in the shape.  This suits an uncached filter on a shape that varies by request (e.g.
+ * a per-user radius) when the rest of the query matches few documents.
+ * <p/>
+ * Solr runs it as a post filter when it isn't cached and its cost is at least 100; otherwise it rewrites to the
+ * equivalent {@link GeoHashPrefixFilter} query.
+ */
+public class GeoHashPostFilter extends ExtendedQueryBase implements PostFilter {
+
+  private final String fieldName;
+  private final Geometry2D geoShape;
+  private final GridNode.GridReferenceSystem gridReferenceSystem;
+
+  public GeoHashPostFilter(String fieldName, Geometry2D geoShape, GridNode.GridReferenceSystem gridReferenceSystem) {
+    this.fieldName = fieldName;
+    this.geoShape = geoShape;
+    this.gridReferenceSystem = gridReferenceSystem;
+  }
+
+  @Override
+  public DelegatingCollector getFilterCollector(IndexSearcher searcher) {
+    final GeoHashValueSource valueSource =
+        GeoHashValueSource.getValueSource(fieldName, (SolrIndexSearcher) searcher);
+    return new DelegatingCollector() {
+      private GeoHashValueSource.GeoHashDocValues docValues;
+
+      @Override
+      public void setNextReader(IndexReader reader, int docBase) throws IOException {
+        super.setNextReader(reader, docBase);
+        docValues = valueSource.getValues(null, reader);
+      }
+
+      @Override
+      public void collect(int doc) throws IOException {
+        final double[] lats = docValues.pointLats(), lons = docValues.pointLons();
+        for (int i = docValues.pointsStart(doc), end = docValues.pointsEnd(doc); i < end; i++) {
+          if (geoShape.contains(lons[i], lats[i])) {
+            delegate.collect(doc);
+            return;
+          }
+        }
+      }
+    };
+  }
+
+  /** When not run as a post filter, e.g. as the main query. */
+  @Override
+  public Query rewrite(IndexReader reader) throws IOException {
+    Query query = new SolrConstantScoreQuery(new GeoHashPrefixFilter(fieldName, geoShape, gridReferenceSystem));
+    query.setBoost(getBoost());
+    return query;
+  }
+
+  @Override
+  public String toString(String field) {
+    return "GeoHashPostFilter{fieldName='" + fieldName + '\'' + ", shape=" + geoShape + '}' + getOptions();
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) return true;
+    if (o == null || getClass() != o.getClass()) return false;
+
+    GeoHashPostFilter that = (GeoHashPostFilter) o;
+
+    return fieldName.equals(that.fieldName) && geoShape.equals(that.geoShape) && getBoost() == that.getBoost();
+  }
+
+  @Override
+  public int hashCode() {
+    return 31 * fieldName.hashCode() + geoShape.hashCode();
+  }
+}
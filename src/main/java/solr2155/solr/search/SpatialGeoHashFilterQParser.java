@@ -22,6 +22,7 @@ import org.apache.lucene.search.Query;
 import org.apache.lucene.spatial.DistanceUtils;
 import org.apache.lucene.spatial.tier.InvalidGeoException;
 import org.apache.solr.common.SolrException;
+import org.apache.solr.common.params.CommonParams;
 import org.apache.solr.common.params.DefaultSolrParams;
 import org.apache.solr.common.params.SolrParams;
 import org.apache.solr.common.util.NamedList;
@@ -32,13 +33,25 @@ import org.apache.solr.search.QParser;
 import org.apache.solr.search.QParserPlugin;
 import org.apache.solr.search.SolrConstantScoreQuery;
 import solr2155.lucene.spatial.geohash.GeoHashPrefixFilter;
+import solr2155.lucene.spatial.geometry.shape.AnnulusGeom;
+import solr2155.lucene.spatial.geometry.shape.CorridorGeom;
+import solr2155.lucene.spatial.geometry.shape.DatelineRectangle;
+import solr2155.lucene.spatial.geometry.shape.DifferenceGeom;
 import solr2155.lucene.spatial.geometry.shape.Geometry2D;
+import solr2155.lucene.spatial.geometry.shape.IntersectionGeom;
 import solr2155.lucene.spatial.geometry.shape.MultiGeom;
 import solr2155.lucene.spatial.geometry.shape.PointDistanceGeom;
+import solr2155.lucene.spatial.geometry.shape.PolygonGeom;
 import solr2155.lucene.spatial.geometry.shape.Rectangle;
+import solr2155.lucene.spatial.geometry.shape.WktShapeParser;
 import solr2155.solr.schema.GeoHashField;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
 /**
  * This query parser can parse geospatial queries based on certain arguments. The format and name of the arguments is
@@ -49,17 +62,37 @@ import java.util.Arrays;
  * the type of shape defining the search area, there are different parameters to use:
  * <ul>
  * <li>Point-radius (AKA distance) / circle: point, radius. point is "lat,lon" and radius is the distance in meters
- * forming the circle.</li>
- * <li>Bounding box: box.  "west,south,east,north" in degrees</li>
- * <li>Polygon: polygon. NOT IMPLEMENTED</li>
- * <li>WKT geometry: geometry. NOT IMPLEMENTED</li>
+ * forming the circle.  Several points separated by ';' match within the radius of any of them, in one pass.  With
+ * minRadius, also in meters, it's a ring: points within minRadius are excluded in the same pass.</li>
+ * <li>Bounding box: box.  "west,south,east,north" in degrees; it crosses the dateline if west &gt; east.</li>
+ * <li>Polygon: polygon. "lat,lon,lat,lon,..." in degrees, the vertices of a polygon not crossing the dateline; the
+ * last needn't repeat the first.</li>
+ * <li>Corridor: line, buffer. line is "lat,lon;lat,lon;..." and buffer is the distance in meters around it.</li>
+ * <li>WKT geometry: geometry, and for a POINT or LINESTRING, buffer in meters.  See {@link WktShapeParser}.</li>
  * </ul>
- * NOTE: Polygon & WKT geometry require a separate module which in turn requires the LGPL licensed JTS library.
+ * Any of them may have a within param, WKT of an area to keep to (e.g. a region's POLYGON), intersected in the same
+ * pass over the grid as an {@link IntersectionGeom}; and an exclude param, WKT of areas to leave out (e.g. a
+ * MULTIPOLYGON of exclusion zones), likewise applied as a {@link DifferenceGeom}.
+ * <p/>
+ * With cache=false and cost=100 or more, the shape is checked against the points of the documents matching the rest of
+ * the request, as a {@link GeoHashPostFilter}, instead of traversing the grid.
+ * <p/>
+ * Parsed WKT geometries are kept in an LRU cache of the plugin, so that a large shape sent with every request is
+ * parsed and indexed once.  Its size is the "geometryCacheSize" init arg, 100 by default; 0 disables it.
  */
 public class SpatialGeoHashFilterQParser extends QParser {
 
+  /** Parsed geometries by their cache key; null if not caching. */
+  protected final Map<String,Geometry2D> geometryCache;
+
   public SpatialGeoHashFilterQParser(String qstr, SolrParams localParams, SolrParams params, SolrQueryRequest req) {
+    this(qstr, localParams, params, req, null);
+  }
+
+  public SpatialGeoHashFilterQParser(String qstr, SolrParams localParams, SolrParams params, SolrQueryRequest req,
+                                     Map<String,Geometry2D> geometryCache) {
     super(qstr, localParams, params, req);
+    this.geometryCache = geometryCache;
   }
 
   //I hate having to make factory classes for such simple things like a query parser!
@@ -67,16 +100,28 @@ public class SpatialGeoHashFilterQParser extends QParser {
 
     public static final String NAME = "geohashfilt";
 
+    public static final int DEFAULT_GEOMETRY_CACHE_SIZE = 100;
+
     protected SolrParams defaultParams;
+    protected Map<String,Geometry2D> geometryCache;
 
     public void init(NamedList args) {
       defaultParams = SolrParams.toSolrParams(args);
+      final int cacheSize = defaultParams.getInt("geometryCacheSize", DEFAULT_GEOMETRY_CACHE_SIZE);
+      if (cacheSize > 0) {
+        geometryCache = Collections.synchronizedMap(new LinkedHashMap<String,Geometry2D>(16, 0.75f, true) {
+          @Override
+          protected boolean removeEldestEntry(Map.Entry<String,Geometry2D> eldest) {
+            return size() > cacheSize;
+          }
+        });
+      }
     }
 
     @Override
     public QParser createParser(String qstr, SolrParams localParams, SolrParams params, SolrQueryRequest req) {
       localParams = new DefaultSolrParams(localParams, defaultParams);
-      return new SpatialGeoHashFilterQParser(qstr, localParams, params, req);
+      return new SpatialGeoHashFilterQParser(qstr, localParams, params, req, geometryCache);
     }
   }
 
@@ -94,59 +139,159 @@ public class SpatialGeoHashFilterQParser extends QParser {
       throw new ParseException("Queried field "+field+" must be a GeoHashField but got "+fieldType);
     GeoHashField geoHashField = (GeoHashField) fieldType;
 
-    final Geometry2D geoShape;
+    Geometry2D geoShape;
 
     String polygonArg = getParam("polygon");//ex: "5,2,33,55,22,3"
     String boxArg = getParam("box");
     String pointArg = getParam("point");
     String radiusArg = getParam("radius");//in some places we call this "distance"
+    String minRadiusArg = getParam("minRadius");//in meters; makes a ring
+    String lineArg = getParam("line");
     String geometryArg = getParam("geometry");
+    String bufferArg = getParam("buffer");//in meters
+    String withinArg = getParam("within");//WKT
+    String excludeArg = getParam("exclude");//WKT
 
-    int args = (polygonArg == null ? 0 : 1) + (boxArg == null ? 0 : 1) + (pointArg == null && radiusArg == null ? 0 : 1)
-        + (geometryArg == null ? 0 : 1);
+    int args = (polygonArg == null ? 0 : 1) + (boxArg == null ? 0 : 1) + (pointArg == null && radiusArg == null && minRadiusArg == null ? 0 : 1)
+        + (lineArg == null ? 0 : 1) + (geometryArg == null ? 0 : 1);
+    if (minRadiusArg != null && pointArg == null)
+      throw new ParseException("minRadius requires a point and radius in "+params);
+    if (bufferArg != null && lineArg == null && geometryArg == null)
+      throw new ParseException("buffer is only supported with a line or geometry in "+params);
     if (args > 1)
       throw new ParseException("Conflicting geo params in "+params);
     if (polygonArg != null) {
       geoShape = parsePolygon(polygonArg);
     } else if (boxArg != null) {
       geoShape = parseBox(boxArg);
-    } else if (pointArg != null) {
-      geoShape = parsePointRadius(pointArg, radiusArg);
+    } else if (pointArg != null || radiusArg != null) {
+      geoShape = parsePointRadius(pointArg, radiusArg, minRadiusArg);
+    } else if (lineArg != null) {
+      geoShape = parseLine(lineArg, bufferArg);
     } else if (geometryArg != null) {
-      geoShape = parseGeometry(geometryArg);
+      geoShape = parseGeometry(geometryArg, bufferArg);
     } else {
       throw new ParseException("Couldn't find a geo param in "+ params);
     }
+    if (withinArg != null)
+      geoShape = new IntersectionGeom(Arrays.asList(geoShape, parseGeometry(withinArg, null)));
+    if (excludeArg != null)
+      geoShape = new DifferenceGeom(geoShape, parseGeometry(excludeArg, null));
 
+    if (!localParams.getBool(CommonParams.CACHE, true) && localParams.getInt(CommonParams.COST, 0) >= 100)
+      return new GeoHashPostFilter(field, geoShape, geoHashField.getGridReferenceSystem());
     return new SolrConstantScoreQuery(new GeoHashPrefixFilter(field, geoShape, geoHashField.getGridReferenceSystem()));
   }
 
-  protected Geometry2D parseGeometry(String geometryArg) throws ParseException {
-    //return JtsGeom.parseGeometry(geometryArg);
-    throw new UnsupportedOperationException();
+  private static double parseBufferKm(String bufferArg) throws ParseException {
+    return parseDistanceKm("buffer", bufferArg);
   }
 
-  protected Geometry2D parsePolygon(String polygonArg) throws ParseException {
-    //return JtsGeom.parsePolygon(polygonArg);
-    throw new UnsupportedOperationException();
+  /** Parses the named param's distance in meters, as km. */
+  private static double parseDistanceKm(String name, String metersArg) throws ParseException {
+    try {
+      return Double.parseDouble(metersArg) / 1000;//convert meters to km
+    } catch (NumberFormatException e) {
+      throw new ParseException("Bad " + name + ": " + metersArg);
+    }
+  }
+
+  /** A {@link CorridorGeom} around the line of "lat,lon" points separated by ';'. */
+  protected Geometry2D parseLine(String lineArg, String bufferArg) throws ParseException {
+    if (bufferArg == null)
+      throw new ParseException("line requires a buffer");
+    double[][] points;
+    try {
+      points = GeoHashField.parsePoints(lineArg);
+    } catch (InvalidGeoException e) {
+      throw new ParseException(e.toString());
+    }
+    double[] line = new double[points.length * 2];
+    for (int i = 0; i < points.length; i++) {
+      line[i * 2] = points[i][1];//x is lon
+      line[i * 2 + 1] = points[i][0];
+    }
+    try {
+      return new CorridorGeom(line, parseBufferKm(bufferArg), DistanceUtils.EARTH_MEAN_RADIUS_KM);
+    } catch (IllegalArgumentException e) {
+      throw new ParseException(e.getMessage());
+    }
+  }
+
+  /** Parses the WKT geometry, or gets it from the cache. */
+  protected Geometry2D parseGeometry(String geometryArg, String bufferArg) throws ParseException {
+    final double bufferKm = bufferArg == null ? 0 : parseBufferKm(bufferArg);
+    final String key = bufferKm > 0 ? bufferKm + ";" + geometryArg : geometryArg;
+    Geometry2D shape = geometryCache == null ? null : geometryCache.get(key);
+    if (shape == null) {
+      try {
+        shape = WktShapeParser.parse(geometryArg, bufferKm, DistanceUtils.EARTH_MEAN_RADIUS_KM);
+      } catch (IllegalArgumentException e) {
+        throw new ParseException(e.getMessage());
+      }
+      //parsing the same shape concurrently is harmless
+      if (geometryCache != null)
+        geometryCache.put(key, shape);
+    }
+    return shape;
   }
 
   /**
-   * Follows the <a href="http://www.opensearch.org/Specifications/OpenSearch/Extensions/Geo/1.0/Draft_2#The_.22radius.22_parameters">
+   * Follows the <a href="http://www.opensearch.org/Specifications/OpenSearch/Extensions/Geo/1.0/Draft_2#The_.22polygon.22_parameter">
    * OpenSearch spec on polygon.</a>
    */
+  protected Geometry2D parsePolygon(String polygonArg) throws ParseException {
+    String[] coords = polygonArg.split(",");
+    if (coords.length % 2 != 0 || coords.length < 6)
+      throw new ParseException("Expected polygon arg with at least 3 lat,lon pairs.");
+    double[] ring = new double[coords.length];
+    try {
+      for (int i = 0; i < coords.length; i += 2) {
+        ring[i] = Double.parseDouble(coords[i + 1].trim());//x is lon
+        ring[i + 1] = Double.parseDouble(coords[i].trim());
+      }
+    } catch (NumberFormatException e) {
+      throw new ParseException("Bad polygon arg: " + polygonArg);
+    }
+    try {
+      return new PolygonGeom(ring);
+    } catch (IllegalArgumentException e) {
+      throw new ParseException(e.getMessage());
+    }
+  }
+
   protected Geometry2D parsePointRadius(String pointArg, String radiusArg) throws ParseException {
+    return parsePointRadius(pointArg, radiusArg, null);
+  }
+
+  /**
+   * Follows the <a href="http://www.opensearch.org/Specifications/OpenSearch/Extensions/Geo/1.0/Draft_2#The_.22radius.22_parameters">
+   * OpenSearch spec on polygon.</a>  If minRadiusArg isn't null, each circle is an {@link AnnulusGeom} with that hole.
+   */
+  protected Geometry2D parsePointRadius(String pointArg, String radiusArg, String minRadiusArg) throws ParseException {
     if (pointArg == null || radiusArg == null)
       throw new ParseException("point or radius not specified");
-    double[] point;
+    double[][] points;
     try {
-      point = DistanceUtils.parseLatitudeLongitude(pointArg);
+      points = GeoHashField.parsePoints(pointArg);
     } catch (InvalidGeoException e) {
       throw new ParseException(e.toString());
     }
-    double distanceKm = Double.parseDouble(radiusArg)/1000;//convert meters to km
-    return new PointDistanceGeom(
-        point[0],point[1],distanceKm,DistanceUtils.EARTH_MEAN_RADIUS_KM);
+    double distanceKm = parseDistanceKm("radius", radiusArg);
+    double minDistanceKm = minRadiusArg == null ? -1 : parseDistanceKm("minRadius", minRadiusArg);
+    if (minRadiusArg != null && (minDistanceKm < 0 || minDistanceKm >= distanceKm))
+      throw new ParseException("minRadius must be at least 0 and less than radius");
+    List<Geometry2D> circles = new ArrayList<Geometry2D>(points.length);
+    for (double[] point : points) {
+      if (minRadiusArg != null) {
+        circles.add(new AnnulusGeom(
+            point[0],point[1],minDistanceKm,distanceKm,DistanceUtils.EARTH_MEAN_RADIUS_KM));
+      } else {
+        circles.add(new PointDistanceGeom(
+            point[0],point[1],distanceKm,DistanceUtils.EARTH_MEAN_RADIUS_KM));
+      }
+    }
+    return circles.size() == 1 ? circles.get(0) : new MultiGeom(circles);
   }
 
   /**
@@ -165,9 +310,7 @@ public class SpatialGeoHashFilterQParser extends QParser {
     if (x1 <= x2) {
       return new Rectangle( x1, y1, x2, y2 );
     } else {
-      Geometry2D shape1 = new Rectangle(Math.max(x1,x2),y1,180,y2);
-      Geometry2D shape2 = new Rectangle(-180,y1,Math.min(x1,x2),y2);
-      return new MultiGeom(Arrays.asList(shape1, shape2));
+      return new DatelineRectangle(x1, y1, x2, y2);
     }
   }
 }
@@ -0,0 +1,103 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package solr2155.solr.search;
+
+import org.apache.lucene.queryParser.ParseException;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.spatial.DistanceUtils;
+import org.apache.lucene.spatial.tier.InvalidGeoException;
+import org.apache.solr.common.SolrException;
+import org.apache.solr.common.params.DefaultSolrParams;
+import org.apache.solr.common.params.SolrParams;
+import org.apache.solr.common.params.SpatialParams;
+import org.apache.solr.common.util.NamedList;
+import org.apache.solr.request.SolrQueryRequest;
+import org.apache.solr.schema.FieldType;
+import org.apache.solr.schema.SchemaField;
+import org.apache.solr.search.QParser;
+import org.apache.solr.search.QParserPlugin;
+import org.apache.solr.search.SolrConstantScoreQuery;
+import solr2155.solr.schema.GeoHashField;
+
+/**
+ * Matches the k documents in the index nearest to a point, using {@link GeoHashKnnFilter}:
+ * <pre>
+ *   fq={!gh_knn sfield=store pt=45.15,-93.85 k=10}&amp;sort=geodist() asc
+ * </pre>
+ * The {@link GeoHashField} to search is "sfield", the center is "pt" as "lat,lon" (both may be request params instead
+ * of local params, as with geodist()), and "k" defaults to 10.  The nearest documents are found amongst all documents
+ * in the index, not just those matching the rest of the query.  It doesn't order them; sort by geodist() for that.
+ */
+public class SpatialKnnQParser extends QParser {
+
+  public static final int DEFAULT_K = 10;
+
+  public SpatialKnnQParser(String qstr, SolrParams localParams, SolrParams params, SolrQueryRequest req) {
+    super(qstr, localParams, params, req);
+  }
+
+  public static class Plugin extends QParserPlugin {
+
+    public static final String NAME = "gh_knn";
+
+    protected SolrParams defaultParams;
+
+    public void init(NamedList args) {
+      defaultParams = SolrParams.toSolrParams(args);
+    }
+
+    @Override
+    public QParser createParser(String qstr, SolrParams localParams, SolrParams params, SolrQueryRequest req) {
+      localParams = new DefaultSolrParams(localParams, defaultParams);
+      return new SpatialKnnQParser(qstr, localParams, params, req);
+    }
+  }
+
+  @Override
+  public Query parse() throws ParseException {
+    String field = getParam(SpatialParams.FIELD);
+    if (field == null)
+      throw new SolrException(SolrException.ErrorCode.BAD_REQUEST,
+              SpatialParams.FIELD + " is not properly specified");
+    SchemaField schemaField = req.getSchema().getField(field);
+    final FieldType fieldType = schemaField.getType();
+    if (!(fieldType instanceof GeoHashField))
+      throw new ParseException("Queried field "+field+" must be a GeoHashField but got "+fieldType);
+    GeoHashField geoHashField = (GeoHashField) fieldType;
+
+    String pointArg = getParam(SpatialParams.POINT);
+    if (pointArg == null)
+      throw new ParseException(SpatialParams.POINT + " not specified");
+    double[] point;
+    try {
+      point = DistanceUtils.parseLatitudeLongitude(pointArg);
+    } catch (InvalidGeoException e) {
+      throw new ParseException(e.toString());
+    }
+    String kArg = getParam("k");
+    int k;
+    try {
+      k = kArg == null ? DEFAULT_K : Integer.parseInt(kArg);
+    } catch (NumberFormatException e) {
+      throw new ParseException("k must be an integer but got " + kArg);
+    }
+
+    return new SolrConstantScoreQuery(
+        new GeoHashKnnFilter(field, point[0], point[1], k, geoHashField.getGridReferenceSystem()));
+  }
+}
@@ -21,8 +21,12 @@ import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.index.Term;
 import org.apache.lucene.index.TermDocs;
 import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.spatial.DistanceUtils;
+import org.apache.lucene.util.ArrayUtil;
+import org.apache.lucene.util.RamUsageEstimator;
 import org.apache.solr.schema.FieldType;
 import org.apache.solr.search.FunctionQParser;
+import org.apache.solr.search.SolrCache;
 import org.apache.solr.search.SolrIndexReader;
 import org.apache.solr.search.SolrIndexSearcher;
 import org.apache.solr.search.function.DocValues;
@@ -37,45 +41,68 @@ import solr2155.solr.schema.GeoHashField;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 
 /**
  * TODO consider moving this to lucene package and remove dependency on Solr.
- * TODO implement single-value data structure differently
+ * <p/>
+ * The points are held in primitive arrays across the entire index (all Lucene segments).  If no document has more
+ * than one point then the arrays are indexed by doc id; otherwise a doc's points are a range of the arrays given by
+ * an array of offsets.  Optionally each point is also held as a 3D unit vector so that distances are cheaper to
+ * compute; see {@link GeoHashDocValues#hasUnitVectors()}.
  */
 public class GeoHashValueSource extends MultiValueSource {
 
-  private static final String CACHE_NAME = "fieldValueCache";//"geoHashValues";
+  /** The name of the {@link GeoHashValueSourceCache} in solrconfig.xml. */
+  public static final String CACHE_NAME = "geoHashValues";
+  /** The cache name used prior to {@link #CACHE_NAME}; any user cache by this name is used if the former is absent. */
+  private static final String LEGACY_CACHE_NAME = "fieldValueCache";
 
-  private static final int DEFAULT_ARRAY_CAPACITY = 5;
+  private static final int DEFAULT_ARRAY_CAPACITY = 1024;
   private final String fieldName;
 
   /** Factory method invoked by {@link org.apache.solr.schema.GeoHashField#getValueSource(org.apache.solr.schema.SchemaField, org.apache.solr.search.QParser)}. */
   public static ValueSource getValueSource(String fieldName, FunctionQParser parser) {
-    final SolrIndexSearcher searcher = parser.getReq().getSearcher();
-    GeoHashValueSource valueSource = (GeoHashValueSource) searcher.cacheLookup(CACHE_NAME, fieldName);
-    if (valueSource == null) {
-      try {
-        valueSource = new GeoHashValueSource(fieldName,searcher);
-      } catch (IOException e) {
-        throw new RuntimeException(e);
+    return getValueSource(fieldName, parser.getReq().getSearcher());
+  }
+
+  /** Gets the field's values from the searcher's cache, loading them if needed. */
+  public static GeoHashValueSource getValueSource(String fieldName, SolrIndexSearcher searcher) {
+    try {
+      SolrCache cache = searcher.getCache(CACHE_NAME);
+      if (cache instanceof GeoHashValueSourceCache)
+        return ((GeoHashValueSourceCache) cache).getOrLoad(fieldName, searcher);
+      //a general purpose cache, or none at all in which case the field is loaded on every request!
+      GeoHashValueSource valueSource = (GeoHashValueSource) searcher.cacheLookup(LEGACY_CACHE_NAME, fieldName);
+      if (valueSource == null) {
+        valueSource = new GeoHashValueSource(fieldName,searcher,false);
+        searcher.cacheInsert(LEGACY_CACHE_NAME,fieldName,valueSource);
       }
-      searcher.cacheInsert(CACHE_NAME,fieldName,valueSource);
+      return valueSource;
+    } catch (IOException e) {
+      throw new RuntimeException(e);
     }
-    return valueSource;
   }
 
   private final Logger log = LoggerFactory.getLogger(getClass());
 
   /**
-   * A multi-value cache across the entire index (all Lucene segments).
-   * Admittedly the List<Point2D> part isn't particularly memory efficient or kind to the GC.
+   * Index by doc id; the points of doc d are at [docPointStart[d], docPointStart[d+1]) of the point arrays.
+   * Null when the field is single-valued, in which case the point arrays are indexed by doc id.
    */
-  private List<Point2D>[] doc2PointsCache;//index by doc id, then list of points
+  private int[] docPointStart;
+
+  /** Lat & lon of each point, in degrees. When single-valued, NaN if the doc has no point. Null if there is no data. */
+  private double[] pointLats, pointLons;
+
+  /** The unit vector (on a sphere with radius 1) of each point. Null unless requested. */
+  private double[] pointXs, pointYs, pointZs;
+
+  private final long ramBytesUsed;//estimated
 
-  @SuppressWarnings({"unchecked"})
-  GeoHashValueSource(String fieldName, SolrIndexSearcher searcher) throws IOException {
+  GeoHashValueSource(String fieldName, SolrIndexSearcher searcher, boolean unitVectors) throws IOException {
     log.info("Loading geohash field "+fieldName+" into memory.");
     this.fieldName = fieldName;
 
@@ -88,8 +115,15 @@ public class GeoHashValueSource extends MultiValueSource {
     else
       throw new RuntimeException("field "+fieldName+" should be a GeoHashField, not "+fieldType.getTypeName());
 
-    //Traverse the index to load up doc2PointsCache
+    //Traverse the index to collect each doc-point pair in term order, and count the points per doc
     IndexReader reader = searcher.getIndexReader();
+    final int maxDoc = reader.maxDoc();
+    int[] docCounts = new int[maxDoc];
+    int[] pairDocs = new int[DEFAULT_ARRAY_CAPACITY];
+    double[] pairLats = new double[DEFAULT_ARRAY_CAPACITY];
+    double[] pairLons = new double[DEFAULT_ARRAY_CAPACITY];
+    int numPairs = 0;
+    int maxPerDoc = 0;
     TermsEnumCompatibility termsEnum = new TermsEnumCompatibility(reader,fieldName);
     TermDocs termDocs = reader.termDocs(); //cached for termsEnum.docs() calls
     try {
@@ -105,14 +139,17 @@ public class GeoHashValueSource extends MultiValueSource {
           final int docId = termDocs.doc();
           if (docId == DocIdSetIterator.NO_MORE_DOCS)
             break;
-          if (doc2PointsCache == null)
-            doc2PointsCache = (List<Point2D>[]) new List[reader.maxDoc()];//java generics hack
-          List<Point2D> points = doc2PointsCache[docId];
-          if (points == null) {
-            points = new ArrayList<Point2D>(DEFAULT_ARRAY_CAPACITY);
-            doc2PointsCache[docId] = points;
+          if (numPairs == pairDocs.length)
+            pairDocs = ArrayUtil.grow(pairDocs);
+          if (numPairs == pairLats.length) {//(may grow differently than an int[])
+            pairLats = ArrayUtil.grow(pairLats);
+            pairLons = ArrayUtil.grow(pairLons);
           }
-          points.add(point);
+          pairDocs[numPairs] = docId;
+          pairLats[numPairs] = point.getY();
+          pairLons[numPairs] = point.getX();
+          numPairs++;
+          maxPerDoc = Math.max(maxPerDoc, ++docCounts[docId]);
         }
       }
     } finally { // in Lucene 3 these should be closed (not in Lucene 4)
@@ -120,32 +157,79 @@ public class GeoHashValueSource extends MultiValueSource {
       termsEnum.close();
     }
 
+    //Arrange the pairs by doc
+    if (maxPerDoc == 1) {
+      pointLats = new double[maxDoc];
+      pointLons = new double[maxDoc];
+      Arrays.fill(pointLats, Double.NaN);
+      Arrays.fill(pointLons, Double.NaN);
+      for (int i = 0; i < numPairs; i++) {
+        pointLats[pairDocs[i]] = pairLats[i];
+        pointLons[pairDocs[i]] = pairLons[i];
+      }
+    } else if (maxPerDoc > 1) {
+      docPointStart = new int[maxDoc + 1];
+      for (int docId = 0; docId < maxDoc; docId++) {
+        docPointStart[docId + 1] = docPointStart[docId] + docCounts[docId];
+      }
+      pointLats = new double[numPairs];
+      pointLons = new double[numPairs];
+      int[] docNextPoint = docCounts;//reuse; becomes the next point index to write for each doc
+      System.arraycopy(docPointStart, 0, docNextPoint, 0, maxDoc);
+      for (int i = 0; i < numPairs; i++) {
+        int pointIdx = docNextPoint[pairDocs[i]]++;
+        pointLats[pointIdx] = pairLats[i];
+        pointLons[pointIdx] = pairLons[i];
+      }
+    }
+    if (unitVectors && pointLats != null) {
+      pointXs = new double[pointLats.length];
+      pointYs = new double[pointLats.length];
+      pointZs = new double[pointLats.length];
+      for (int i = 0; i < pointLats.length; i++) {
+        double latRad = pointLats[i] * DistanceUtils.DEGREES_TO_RADIANS;
+        double lonRad = pointLons[i] * DistanceUtils.DEGREES_TO_RADIANS;
+        double cosLat = Math.cos(latRad);
+        pointXs[i] = cosLat * Math.cos(lonRad);//NaN if no point, which is fine
+        pointYs[i] = cosLat * Math.sin(lonRad);
+        pointZs[i] = Math.sin(latRad);
+      }
+    }
+
+    ramBytesUsed = estimateRamBytesUsed();
+
     //Log statistics
     if (log.isInfoEnabled()) {
-      int min = Integer.MAX_VALUE, sum = 0, max = 0;
-      int dlen = 0;
-      if (doc2PointsCache != null) {
-        dlen = doc2PointsCache.length;
-        for (List<Point2D> point2Ds : doc2PointsCache) {
-          int plen = (point2Ds == null ? 0 : point2Ds.size());
-          min = Math.min(min, plen);
-          max = Math.max(max, plen);
-          sum += plen;
-        }
-      }
-      if (min == Integer.MAX_VALUE)
-        min = 0;
-      float avg = (float)sum/dlen;
-      log.info("field '"+fieldName+"' in RAM: loaded min/avg/max per doc #: ("+min+","+avg+","+max+") #"+dlen);
+      float avg = (float)numPairs/maxDoc;
+      log.info("field '"+fieldName+"' in RAM ("+(docPointStart == null ? "single" : "multi")+"-valued"
+          + (pointXs != null ? ", unit vectors" : "") + ", ~"
+          + RamUsageEstimator.humanReadableUnits(ramBytesUsed)+"): "
+          + "loaded avg/max per doc #: ("+avg+","+maxPerDoc+") #"+maxDoc);
     }
   }
 
+  private long estimateRamBytesUsed() {
+    long bytes = 0;
+    if (docPointStart != null)
+      bytes += RamUsageEstimator.sizeOf(docPointStart);
+    for (double[] arr : new double[][]{pointLats, pointLons, pointXs, pointYs, pointZs}) {
+      if (arr != null)
+        bytes += RamUsageEstimator.sizeOf(arr);
+    }
+    return bytes;
+  }
+
+  /** The estimated heap bytes used by this field's data. */
+  public long ramBytesUsed() {
+    return ramBytesUsed;
+  }
+
   @Override
   public int dimension() {
     return 2;
   }
 
-  /** This class is public so that {@link #point2Ds(int)} is exposed. */
+  /** This class is public so that the points are exposed. */
   public class GeoHashDocValues extends DocValues {
     private final int docIdBase;
 
@@ -153,20 +237,82 @@ public class GeoHashValueSource extends MultiValueSource {
       this.docIdBase = docIdBase;
     }
 
+    /**
+     * True if no document has more than one point, in which case {@link #getLat(int)} and {@link #getLon(int)} may be
+     * used instead of the point ranges.
+     */
+    public boolean isSingleValued() {
+      return GeoHashValueSource.this.docPointStart == null;
+    }
+
+    /** True if the points' unit vectors are available via {@link #pointXs()} etc. */
+    public boolean hasUnitVectors() {
+      return GeoHashValueSource.this.pointXs != null;
+    }
+
+    /** The latitude of the doc's point, or NaN if it has none.  Only valid if {@link #isSingleValued()}. */
+    public double getLat(int doc) {
+      final double[] cache = GeoHashValueSource.this.pointLats;
+      return cache == null ? Double.NaN : cache[docIdBase+doc];
+    }
+
+    /** The longitude of the doc's point, or NaN if it has none.  Only valid if {@link #isSingleValued()}. */
+    public double getLon(int doc) {
+      final double[] cache = GeoHashValueSource.this.pointLons;
+      return cache == null ? Double.NaN : cache[docIdBase+doc];
+    }
+
+    /** The index into the point arrays of the doc's first point. */
+    public int pointsStart(int doc) {
+      final int[] starts = GeoHashValueSource.this.docPointStart;
+      return starts == null ? docIdBase + doc : starts[docIdBase + doc];
+    }
+
+    /** The index into the point arrays after the doc's last point. */
+    public int pointsEnd(int doc) {
+      final int[] starts = GeoHashValueSource.this.docPointStart;
+      if (starts != null)
+        return starts[docIdBase + doc + 1];
+      return Double.isNaN(getLat(doc)) ? docIdBase + doc : docIdBase + doc + 1;
+    }
+
+    //The arrays below are indexed by point; see pointsStart & pointsEnd.  Do NOT modify them!  May return null.
+
+    public double[] pointLats() { return GeoHashValueSource.this.pointLats; }
+    public double[] pointLons() { return GeoHashValueSource.this.pointLons; }
+    public double[] pointXs() { return GeoHashValueSource.this.pointXs; }
+    public double[] pointYs() { return GeoHashValueSource.this.pointYs; }
+    public double[] pointZs() { return GeoHashValueSource.this.pointZs; }
+
+    /**
+     * Puts the lat & lon of the doc's point into vals (in that order), like LatLonType does.  If the doc has more than
+     * one point then the first is used.  If it has none then 0,0 is used, consistent with other Solr functions.
+     */
     @Override
     public void doubleVal(int doc, double[] vals) {
-      super.doubleVal(doc, vals);//TODO
+      final int start = pointsStart(doc);
+      if (start < pointsEnd(doc)) {
+        vals[0] = pointLats()[start];
+        vals[1] = pointLons()[start];
+      } else {
+        vals[0] = 0;
+        vals[1] = 0;
+      }
     }
 
     /**
-     * Do NOT modify the returned array!  May return null.
+     * A new list of the doc's points.  May return null.  Prefer the point arrays in performance sensitive code.
      */
     public List<Point2D> point2Ds(int doc) {
-      //This cache is over the entire index (all Lucene segments).
-      final List<Point2D>[] cache = GeoHashValueSource.this.doc2PointsCache;
-      if (cache == null)
+      final int start = pointsStart(doc);
+      final int end = pointsEnd(doc);
+      if (start == end)
         return null;
-      return cache[docIdBase+doc];
+      List<Point2D> points = new ArrayList<Point2D>(end - start);
+      for (int i = start; i < end; i++) {
+        points.add(new Point2D(pointLons()[i], pointLats()[i]));
+      }
+      return points;
     }
 
     @Override
@@ -0,0 +1,335 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package solr2155.solr.search.function;
+
+import org.apache.lucene.util.RamUsageEstimator;
+import org.apache.solr.common.SolrException;
+import org.apache.solr.common.util.NamedList;
+import org.apache.solr.common.util.SimpleOrderedMap;
+import org.apache.solr.core.SolrCore;
+import org.apache.solr.search.CacheRegenerator;
+import org.apache.solr.search.SolrCache;
+import org.apache.solr.search.SolrIndexSearcher;
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A cache of {@link GeoHashValueSource} instances keyed by field name, bounded by the estimated RAM of the entries
+ * instead of by the number of entries.  Configure it in the &lt;query&gt; section of solrconfig.xml:
+ * <pre>
+ *   &lt;cache name="geoHashValues" class="solr2155.solr.search.function.GeoHashValueSourceCache"
+ *     maxRamMB="512" autowarmCount="-1"/&gt;
+ * </pre>
+ * Least recently used fields are evicted when the total exceeds maxRamMB (absent means no limit), although the most
+ * recently loaded field is always kept.  Autowarming reloads the most recently used fields against the new searcher;
+ * no regenerator is needed.  Statistics (hits, misses, load time, RAM) are exposed like any other Solr cache, including
+ * via JMX.
+ * <p/>
+ * If unitVectors="true" then each point is additionally held as a 3D unit vector (24 more bytes per point), which
+ * makes distance calculations much cheaper.
+ */
+public class GeoHashValueSourceCache implements SolrCache<String,GeoHashValueSource> {
+
+  /* An instance of this class will be shared across multiple instances
+   * of a GeoHashValueSourceCache at the same time.  Make sure everything is thread safe.
+   */
+  private static class CumulativeStats {
+    AtomicLong lookups = new AtomicLong();
+    AtomicLong hits = new AtomicLong();
+    AtomicLong inserts = new AtomicLong();
+    AtomicLong evictions = new AtomicLong();
+    AtomicLong loadTime = new AtomicLong();
+  }
+
+  private CumulativeStats stats;
+
+  // per instance stats.  The synchronization used for the map will also be
+  // used for updating these statistics (and hence they are not AtomicLongs
+  private long lookups;
+  private long hits;
+  private long inserts;
+  private long evictions;
+  private long loadTime;
+  private long ramBytes;
+
+  private long warmupTime = 0;
+
+  private LinkedHashMap<String,GeoHashValueSource> map;
+  /** Guards against loading the same field concurrently. */
+  private final ConcurrentHashMap<String,Object> loadLocks = new ConcurrentHashMap<String,Object>();
+  private String name;
+  private long maxRamBytes;
+  private int autowarmCount;
+  private boolean unitVectors;
+  private State state;
+  private String description="GeoHashValueSource Cache";
+
+  public Object init(Map args, Object persistence, CacheRegenerator regenerator) {
+    state=State.CREATED;
+    name = (String)args.get("name");
+    String str = (String)args.get("autowarmCount");
+    autowarmCount = str==null ? 0 : Integer.parseInt(str);
+    str = (String)args.get("unitVectors");
+    unitVectors = str != null && Boolean.parseBoolean(str);
+    str = (String)args.get("maxRamMB");
+    maxRamBytes = str==null ? Long.MAX_VALUE : (long) (Double.parseDouble(str) * RamUsageEstimator.ONE_MB);
+
+    description = "GeoHashValueSource Cache(maxRamMB=" + (str==null ? "unlimited" : str);
+    if (autowarmCount != 0) {
+      description += ", autowarmCount=" + autowarmCount;
+    }
+    if (unitVectors) {
+      description += ", unitVectors=true";
+    }
+    description += ')';
+
+    map = new LinkedHashMap<String,GeoHashValueSource>(16, 0.75f, true);
+
+    if (persistence==null) {
+      // must be the first time a cache of this type is being created
+      persistence = new CumulativeStats();
+    }
+
+    stats = (CumulativeStats)persistence;
+
+    return persistence;
+  }
+
+  public String name() {
+    return name;
+  }
+
+  public int size() {
+    synchronized(map) {
+      return map.size();
+    }
+  }
+
+  public GeoHashValueSource put(String key, GeoHashValueSource value) {
+    synchronized (map) {
+      if (state == State.LIVE) {
+        stats.inserts.incrementAndGet();
+      }
+      inserts++;
+      GeoHashValueSource old = map.put(key, value);
+      if (old != null)
+        ramBytes -= old.ramBytesUsed();
+      ramBytes += value.ramBytesUsed();
+      evictToMaxRam();
+      return old;
+    }
+  }
+
+  /** Removes least recently used entries until we're within maxRamBytes, always keeping at least one. */
+  private void evictToMaxRam() {
+    Iterator<GeoHashValueSource> iter = map.values().iterator();
+    while (ramBytes > maxRamBytes && map.size() > 1) {
+      GeoHashValueSource eldest = iter.next();
+      iter.remove();
+      ramBytes -= eldest.ramBytesUsed();
+      // increment evictions regardless of state.
+      evictions++;
+      stats.evictions.incrementAndGet();
+    }
+    if (ramBytes > maxRamBytes)
+      log.warn(name + " cache holds " + RamUsageEstimator.humanReadableUnits(ramBytes)
+          + " which is more than the configured maxRamMB");
+  }
+
+  public GeoHashValueSource get(String key) {
+    synchronized (map) {
+      GeoHashValueSource val = map.get(key);
+      if (state == State.LIVE) {
+        // only increment lookups and hits if we are live.
+        lookups++;
+        stats.lookups.incrementAndGet();
+        if (val!=null) {
+          hits++;
+          stats.hits.incrementAndGet();
+        }
+      }
+      return val;
+    }
+  }
+
+  /**
+   * Gets the cached field data, or loads it from the searcher and caches it.  Concurrent requests for the same
+   * uncached field wait for one load instead of each loading it.
+   */
+  public GeoHashValueSource getOrLoad(String fieldName, SolrIndexSearcher searcher) throws IOException {
+    GeoHashValueSource valueSource = get(fieldName);
+    if (valueSource != null)
+      return valueSource;
+    Object lock = loadLocks.get(fieldName);
+    if (lock == null) {
+      Object newLock = new Object();
+      lock = loadLocks.putIfAbsent(fieldName, newLock);
+      if (lock == null)
+        lock = newLock;
+    }
+    synchronized (lock) {
+      synchronized (map) {
+        valueSource = map.get(fieldName);//loaded by another thread while we waited?
+      }
+      if (valueSource == null) {
+        valueSource = load(fieldName, searcher);
+        put(fieldName, valueSource);
+      }
+    }
+    return valueSource;
+  }
+
+  private GeoHashValueSource load(String fieldName, SolrIndexSearcher searcher) throws IOException {
+    long start = System.currentTimeMillis();
+    GeoHashValueSource valueSource = new GeoHashValueSource(fieldName, searcher, unitVectors);
+    long elapsed = System.currentTimeMillis() - start;
+    synchronized (map) {
+      loadTime += elapsed;
+    }
+    stats.loadTime.addAndGet(elapsed);
+    return valueSource;
+  }
+
+  public void clear() {
+    synchronized(map) {
+      map.clear();
+      ramBytes = 0;
+    }
+  }
+
+  public void setState(State state) {
+    this.state = state;
+  }
+
+  public State getState() {
+    return state;
+  }
+
+  public void warm(SolrIndexSearcher searcher, SolrCache<String,GeoHashValueSource> old) throws IOException {
+    if (autowarmCount == 0) return;
+    long warmingStartTime = System.currentTimeMillis();
+    GeoHashValueSourceCache other = (GeoHashValueSourceCache)old;
+
+    // Don't do the loading in the synchronized block, just pull out the keys, eldest first.
+    List<String> keys;
+    synchronized (other.map) {
+      keys = new ArrayList<String>(other.map.keySet());
+    }
+    if (autowarmCount != -1 && keys.size() > autowarmCount)
+      keys = keys.subList(keys.size() - autowarmCount, keys.size());
+
+    // load from the oldest to the newest entries so that the ordering will be correct in the new cache.
+    for (String key : keys) {
+      try {
+        put(key, load(key, searcher));
+      }
+      catch (Throwable e) {
+        SolrException.log(log,"Error during auto-warming of key:" + key, e);
+      }
+    }
+
+    warmupTime = System.currentTimeMillis() - warmingStartTime;
+  }
+
+  public void close() {
+  }
+
+
+  //////////////////////// SolrInfoMBeans methods //////////////////////
+
+
+  public String getName() {
+    return GeoHashValueSourceCache.class.getName();
+  }
+
+  public String getVersion() {
+    return SolrCore.version;
+  }
+
+  public String getDescription() {
+    return description;
+  }
+
+  public Category getCategory() {
+    return Category.CACHE;
+  }
+
+  public String getSourceId() {
+    return null;
+  }
+
+  public String getSource() {
+    return null;
+  }
+
+  public URL[] getDocs() {
+    return null;
+  }
+
+  // returns a ratio, not a percent.
+  private static String calcHitRatio(long lookups, long hits) {
+    if (lookups==0) return "0.00";
+    if (lookups==hits) return "1.00";
+    int hundredths = (int)(hits*100/lookups);   // rounded down
+    if (hundredths < 10) return "0.0" + hundredths;
+    return "0." + hundredths;
+  }
+
+  public NamedList<Object> getStatistics() {
+    NamedList<Object> lst = new SimpleOrderedMap<Object>();
+    synchronized (map) {
+      lst.add("lookups", lookups);
+      lst.add("hits", hits);
+      lst.add("misses", lookups - hits);
+      lst.add("hitratio", calcHitRatio(lookups,hits));
+      lst.add("inserts", inserts);
+      lst.add("evictions", evictions);
+      lst.add("size", map.size());
+      lst.add("ramBytes", ramBytes);
+      lst.add("ramUsed", RamUsageEstimator.humanReadableUnits(ramBytes));
+      lst.add("loadTime", loadTime);
+    }
+
+    lst.add("warmupTime", warmupTime);
+
+    long clookups = stats.lookups.get();
+    long chits = stats.hits.get();
+    lst.add("cumulative_lookups", clookups);
+    lst.add("cumulative_hits", chits);
+    lst.add("cumulative_misses", clookups - chits);
+    lst.add("cumulative_hitratio", calcHitRatio(clookups,chits));
+    lst.add("cumulative_inserts", stats.inserts.get());
+    lst.add("cumulative_evictions", stats.evictions.get());
+    lst.add("cumulative_loadTime", stats.loadTime.get());
+
+    return lst;
+  }
+
+  @Override
+  public String toString() {
+    return name + getStatistics().toString();
+  }
+}
@@ -0,0 +1,216 @@
+package solr2155.solr.search.function.distance;
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import org.apache.lucene.spatial.DistanceUtils;
+import org.apache.lucene.spatial.tier.InvalidGeoException;
+import org.apache.solr.common.SolrException;
+import org.apache.solr.common.params.SolrParams;
+import org.apache.solr.common.params.SpatialParams;
+import org.apache.solr.request.SolrQueryRequest;
+import org.apache.solr.request.SolrRequestInfo;
+import org.apache.solr.schema.SchemaField;
+import org.apache.solr.search.SolrIndexSearcher;
+import org.apache.solr.search.function.ValueSource;
+import solr2155.solr.schema.GeoHashField;
+import solr2155.solr.search.function.GeoHashValueSource;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The haversine and the point measured to, by top level doc id, of those documents whose
+ * {@link HaversineMultiConstFunction} value was calculated during a request, so that the sort by geodist(), the
+ * distance facets and the nearest points needn't calculate them again.  There is one per function (field, center and
+ * mode), kept in the request context.  Consumers {@link #register(SolrQueryRequest, HaversineMultiConstFunction)} it
+ * before the query runs, usually by {@link #register(SolrQueryRequest, String)} from their params; the sort then puts
+ * each doc it calculates, and the consumers {@link #findOrCalculate(int)} the docs they need.  It isn't thread-safe.
+ */
+public class DistanceMemo {
+
+  private final HaversineMultiConstFunction function;//null if not registered
+  private final SolrIndexSearcher searcher;
+  private HaversineMultiConstFunction.HaversineDocValues docValues;//only if needed
+
+  //open addressing by doc, with linear probing
+  private int[] docs;//-1 if empty
+  private double[] havs;
+  private int[] points;
+  private int size;
+
+  DistanceMemo() {
+    this(null, null);
+  }
+
+  private DistanceMemo(HaversineMultiConstFunction function, SolrIndexSearcher searcher) {
+    this.function = function;
+    this.searcher = searcher;
+    allocate(64);
+  }
+
+  private void allocate(int capacity) {
+    docs = new int[capacity];
+    Arrays.fill(docs, -1);
+    havs = new double[capacity];
+    points = new int[capacity];
+  }
+
+  private static int hash(int doc, int mask) {
+    return (doc * 0x9E3779B9) & mask;
+  }
+
+  /** The index of the top level doc id's entry, or -1 if it wasn't put. */
+  public int find(int doc) {
+    final int mask = docs.length - 1;
+    for (int i = hash(doc, mask); ; i = (i + 1) & mask) {
+      if (docs[i] == doc)
+        return i;
+      if (docs[i] < 0)
+        return -1;
+    }
+  }
+
+  /** Records the haversine and point index of the top level doc id, replacing any already put. */
+  public void put(int doc, double hav, int point) {
+    if ((size + 1) * 2 > docs.length)
+      rehash();
+    final int mask = docs.length - 1;
+    int i = hash(doc, mask);
+    while (docs[i] >= 0 && docs[i] != doc)
+      i = (i + 1) & mask;
+    if (docs[i] < 0) {
+      docs[i] = doc;
+      size++;
+    }
+    havs[i] = hav;
+    points[i] = point;
+  }
+
+  /**
+   * The index of the top level doc id's entry, calculating and putting it first if it isn't in the memo yet.  Only for
+   * a registered memo.
+   */
+  public int findOrCalculate(int doc) throws IOException {
+    int index = find(doc);
+    if (index < 0) {
+      if (docValues == null) {
+        Map context = ValueSource.newContext();
+        function.createWeight(context, searcher);
+        docValues = function.getHaversineValues(context, searcher.getReader());
+      }
+      put(doc, docValues.havVal(doc), docValues.getLastPoint());
+      index = find(doc);
+    }
+    return index;
+  }
+
+  private void rehash() {
+    final int[] oldDocs = docs;
+    final double[] oldHavs = havs;
+    final int[] oldPoints = points;
+    allocate(oldDocs.length * 2);
+    final int mask = docs.length - 1;
+    for (int j = 0; j < oldDocs.length; j++) {
+      if (oldDocs[j] < 0)
+        continue;
+      int i = hash(oldDocs[j], mask);
+      while (docs[i] >= 0)
+        i = (i + 1) & mask;
+      docs[i] = oldDocs[j];
+      havs[i] = oldHavs[j];
+      points[i] = oldPoints[j];
+    }
+  }
+
+  /** The number of docs put. */
+  public int size() {
+    return size;
+  }
+
+  /** The index of the entry's point into the field's pointLats() &amp; pointLons(); -1 if the doc has no points. */
+  public int point(int index) {
+    return points[index];
+  }
+
+  public double hav(int index) {
+    return havs[index];
+  }
+
+  public double distance(int index) {
+    return HaversineMultiConstFunction.havToDistance(havs[index]);
+  }
+
+  private static List<Object> contextKey(HaversineMultiConstFunction function) {
+    return Arrays.<Object>asList(DistanceMemo.class, function);
+  }
+
+  /** Gets the request's memo of this function, or null if none was registered. */
+  public static DistanceMemo get(SolrQueryRequest req, HaversineMultiConstFunction function) {
+    return (DistanceMemo) req.getContext().get(contextKey(function));
+  }
+
+  /** Gets the request's memo of this function, creating it if needed. */
+  public static DistanceMemo register(SolrQueryRequest req, HaversineMultiConstFunction function) {
+    DistanceMemo memo = get(req, function);
+    if (memo == null) {
+      memo = new DistanceMemo(function, req.getSearcher());
+      req.getContext().put(contextKey(function), memo);
+    }
+    return memo;
+  }
+
+  /**
+   * Registers the memo of the function of a consumer's params, and returns the function: the GeoHashField
+   * prefix.sfield and the point prefix.pt, defaulting to sfield and pt as used by geodist().  Bad params are a
+   * BAD_REQUEST.
+   */
+  public static HaversineMultiConstFunction register(SolrQueryRequest req, String prefix) {
+    SolrParams params = req.getParams();
+    String fieldParam = prefix + "." + SpatialParams.FIELD;
+    String field = params.get(fieldParam, params.get(SpatialParams.FIELD));
+    if (field == null)
+      throw new SolrException(SolrException.ErrorCode.BAD_REQUEST, fieldParam + " is not specified");
+    SchemaField schemaField = req.getSchema().getField(field);
+    if (!(schemaField.getType() instanceof GeoHashField))
+      throw new SolrException(SolrException.ErrorCode.BAD_REQUEST,
+          "Field " + field + " must be a GeoHashField but got " + schemaField.getType());
+
+    String pointParam = prefix + "." + SpatialParams.POINT;
+    String pointArg = params.get(pointParam, params.get(SpatialParams.POINT));
+    if (pointArg == null)
+      throw new SolrException(SolrException.ErrorCode.BAD_REQUEST, pointParam + " is not specified");
+    double[] point;
+    try {
+      point = DistanceUtils.parseLatitudeLongitude(pointArg);
+    } catch (InvalidGeoException e) {
+      throw new SolrException(SolrException.ErrorCode.BAD_REQUEST, e);
+    }
+
+    HaversineMultiConstFunction function = new HaversineMultiConstFunction(point[0], point[1],
+        GeoHashValueSource.getValueSource(field, req.getSearcher()), true);
+    register(req, function);
+    return function;
+  }
+
+  /** Gets the current request's memo of this function, or null if there's no current request or memo. */
+  static DistanceMemo current(HaversineMultiConstFunction function) {
+    SolrRequestInfo requestInfo = SolrRequestInfo.getRequestInfo();
+    return requestInfo == null ? null : get(requestInfo.getReq(), function);
+  }
+}
@@ -0,0 +1,216 @@
+package solr2155.solr.search.function.distance;
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.queryParser.ParseException;
+import org.apache.lucene.search.Searcher;
+import org.apache.lucene.spatial.DistanceUtils;
+import org.apache.lucene.spatial.tier.InvalidGeoException;
+import org.apache.solr.common.params.SpatialParams;
+import org.apache.solr.schema.SchemaField;
+import org.apache.solr.search.FunctionQParser;
+import org.apache.solr.search.ValueSourceParser;
+import org.apache.solr.search.function.DocValues;
+import org.apache.solr.search.function.ValueSource;
+import solr2155.solr.search.function.GeoHashValueSource;
+
+import java.io.IOException;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * A score that decays with the distance from a point to a multi-valued {@link GeoHashValueSource} field's nearest
+ * point, computed directly from the nearest point's haversine instead of wrapping geodist() in other functions.  It's 1
+ * within "offset" kilometers and "decay" at "offset + scale" kilometers, decaying by a gauss, exp or linear curve:
+ * <pre>
+ *   geodecay(gauss,scale[,offset[,decay[,sum]]])     e.g. boost=geodecay(gauss,10,1,0.5)&amp;sfield=store&amp;pt=...
+ * </pre>
+ * offset defaults to 0 and decay to 0.5.  If the last arg is "sum" then the decays to all of a document's points are
+ * summed, favoring documents with many points nearby.  A document without points scores 0.
+ */
+public class GeoDecayFunction extends ValueSource {
+
+  public static enum Curve {GAUSS, EXP, LINEAR}
+
+  public static class GeoDecayValueSourceParser extends ValueSourceParser {
+    @Override
+    public ValueSource parse(FunctionQParser fp) throws ParseException {
+      String curveStr = fp.parseArg();
+      Curve curve;
+      try {
+        curve = Curve.valueOf(curveStr.toUpperCase(Locale.ENGLISH));
+      } catch (Exception e) {
+        throw new ParseException("geodecay - expected gauss, exp or linear but got " + curveStr);
+      }
+      double scale = fp.parseDouble();
+      double offset = 0;
+      double decay = 0.5;
+      boolean sum = false;
+      if (fp.hasMoreArguments()) {
+        offset = fp.parseDouble();
+        if (fp.hasMoreArguments()) {
+          decay = fp.parseDouble();
+          if (fp.hasMoreArguments()) {
+            String sumStr = fp.parseArg();
+            if (!"sum".equals(sumStr))
+              throw new ParseException("geodecay - expected sum but got " + sumStr);
+            sum = true;
+          }
+        }
+      }
+      if (scale <= 0 || offset < 0 || decay <= 0 || decay >= 1)
+        throw new ParseException("geodecay - requires scale > 0, offset >= 0, and 0 < decay < 1");
+
+      String pt = fp.getParam(SpatialParams.POINT);
+      if (pt == null)
+        throw new ParseException("geodecay - " + SpatialParams.POINT + " is not specified");
+      double[] point;
+      try {
+        point = DistanceUtils.parseLatitudeLongitude(pt);
+      } catch (InvalidGeoException e) {
+        throw new ParseException("Bad spatial pt:" + pt);
+      }
+      String sfield = fp.getParam(SpatialParams.FIELD);
+      if (sfield == null)
+        throw new ParseException("geodecay - " + SpatialParams.FIELD + " is not specified");
+      SchemaField sf = fp.getReq().getSchema().getField(sfield);
+      ValueSource vs = sf.getType().getValueSource(sf, fp);
+      if (!(vs instanceof GeoHashValueSource))
+        throw new ParseException("geodecay - field must be a GeoHashField: " + sf);
+
+      return new GeoDecayFunction(
+          new HaversineMultiConstFunction(point[0], point[1], (GeoHashValueSource) vs, true),
+          curve, scale, offset, decay, sum);
+    }
+  }
+
+  private final HaversineMultiConstFunction distance;
+  private final Curve curve;
+  private final double scale, offset, decay;
+  private final boolean sum;
+
+  //derived from scale & decay:
+  private final double gaussFactor;//-1 / 2 sigma^2
+  private final double expFactor;//lambda
+  private final double linearScale;
+
+  public GeoDecayFunction(HaversineMultiConstFunction distance, Curve curve, double scale, double offset,
+                          double decay, boolean sum) {
+    this.distance = distance;
+    this.curve = curve;
+    this.scale = scale;
+    this.offset = offset;
+    this.decay = decay;
+    this.sum = sum;
+    this.gaussFactor = Math.log(decay) / (scale * scale);
+    this.expFactor = Math.log(decay) / scale;
+    this.linearScale = scale / (1 - decay);
+  }
+
+  /** The decay for a distance in kilometers, in (0,1]; or [0,1] for linear. */
+  private double decay(double dist) {
+    final double d = Math.max(0, dist - offset);
+    switch (curve) {
+      case GAUSS: return Math.exp(gaussFactor * d * d);
+      case EXP: return Math.exp(expFactor * d);
+      default: return Math.max(0, (linearScale - d) / linearScale);
+    }
+  }
+
+  @Override
+  public DocValues getValues(Map context, IndexReader reader) throws IOException {
+    final HaversineMultiConstFunction.HaversineDocValues distVals = distance.getHaversineValues(context, reader);
+    final GeoHashValueSource.GeoHashDocValues ghDocVals = distVals.getGeoHashDocValues();
+    return new DocValues() {
+      @Override
+      public double doubleVal(int doc) {
+        if (!sum) {
+          final double hav = distVals.havVal(doc);
+          if (distVals.getLastPoint() < 0)
+            return 0;
+          return decay(HaversineMultiConstFunction.havToDistance(hav));
+        }
+        final int end = ghDocVals.pointsEnd(doc);
+        double total = 0;
+        for (int i = ghDocVals.pointsStart(doc); i < end; i++) {
+          total += decay(HaversineMultiConstFunction.havToDistance(distVals.pointHav(i)));
+        }
+        return total;
+      }
+
+      @Override
+      public float floatVal(int doc) {
+        return (float) doubleVal(doc);
+      }
+
+      @Override
+      public int intVal(int doc) {
+        return (int) doubleVal(doc);
+      }
+
+      @Override
+      public long longVal(int doc) {
+        return (long) doubleVal(doc);
+      }
+
+      @Override
+      public String strVal(int doc) {
+        return Double.toString(doubleVal(doc));
+      }
+
+      @Override
+      public String toString(int doc) {
+        return description() + '=' + doubleVal(doc);
+      }
+    };
+  }
+
+  @Override
+  public void createWeight(Map context, Searcher searcher) throws IOException {
+    distance.createWeight(context, searcher);
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (!(o instanceof GeoDecayFunction)) return false;
+    GeoDecayFunction other = (GeoDecayFunction) o;
+    return distance.equals(other.distance) && curve == other.curve && scale == other.scale
+        && offset == other.offset && decay == other.decay && sum == other.sum;
+  }
+
+  @Override
+  public int hashCode() {
+    int result = distance.hashCode();
+    result = 31 * result + curve.hashCode();
+    long temp;
+    temp = Double.doubleToRawLongBits(scale);
+    result = 31 * result + (int) (temp ^ (temp >>> 32));
+    temp = Double.doubleToRawLongBits(offset);
+    result = 31 * result + (int) (temp ^ (temp >>> 32));
+    temp = Double.doubleToRawLongBits(decay);
+    result = 31 * result + (int) (temp ^ (temp >>> 32));
+    result = 31 * result + (sum ? 1 : 0);
+    return result;
+  }
+
+  @Override
+  public String description() {
+    return "geodecay(" + curve.name().toLowerCase(Locale.ENGLISH) + ',' + scale + ',' + offset + ',' + decay
+        + (sum ? ",sum" : "") + ',' + distance.description() + ')';
+  }
+}
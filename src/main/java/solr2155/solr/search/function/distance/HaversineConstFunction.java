@@ -19,12 +19,22 @@ package solr2155.solr.search.function.distance;
 import org.apache.solr.search.function.distance.*;
 import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.queryParser.ParseException;
+import org.apache.lucene.search.FieldCache;
+import org.apache.lucene.search.FieldComparator;
+import org.apache.lucene.search.FieldComparatorSource;
+import org.apache.lucene.search.IndexSearcher;
 import org.apache.lucene.search.Searcher;
+import org.apache.lucene.search.SortField;
 import org.apache.lucene.spatial.DistanceUtils;
 import org.apache.lucene.spatial.tier.InvalidGeoException;
+import org.apache.lucene.util.ArrayUtil;
+import org.apache.lucene.util.RamUsageEstimator;
+import org.apache.solr.common.SolrException;
 import org.apache.solr.common.params.SpatialParams;
+import org.apache.solr.common.util.NamedList;
 import org.apache.solr.schema.SchemaField;
 import org.apache.solr.search.FunctionQParser;
+import org.apache.solr.search.SolrSortField;
 import org.apache.solr.search.ValueSourceParser;
 import org.apache.solr.search.function.*;
 import solr2155.solr.search.function.GeoHashValueSource;
@@ -40,8 +50,35 @@ import java.util.Map;
  */
 public class HaversineConstFunction extends ValueSource {
 
+  /**
+   * The parameter for how a multi-valued GeoHashField's points combine: min (the nearest; the default), max, avg, or
+   * countWithin (the number of points within the "d" param kilometers).
+   */
+  public static final String MODE = "mode";
+
   public static ValueSourceParser parser = new HaversineValueSourceParser();
   public static class HaversineValueSourceParser extends ValueSourceParser {
+    /** Sorts by a GeoHashField calculate ahead in parallel if "parallelThreshold" is positive; may be null. */
+    private ParallelDistances parallel;
+
+    @Override
+    public void init(NamedList args) {
+      if (args == null)
+        return;
+      Object threshold = args.get("parallelThreshold");
+      if (threshold != null && Integer.parseInt(threshold.toString()) > 0) {//0 disables it
+        Object threads = args.get("parallelThreads");
+        Object chunkSize = args.get("parallelChunkSize");
+        parallel = new ParallelDistances(Integer.parseInt(threshold.toString()),
+            threads == null ? Runtime.getRuntime().availableProcessors() : Integer.parseInt(threads.toString()),
+            chunkSize == null ? ParallelDistances.DEFAULT_CHUNK_SIZE : Integer.parseInt(chunkSize.toString()));
+      }
+    }
+
+    ParallelDistances getParallel() {
+      return parallel;
+    }
+
     @Override
     public ValueSource parse(FunctionQParser fp) throws ParseException
     {
@@ -116,14 +153,35 @@ public class HaversineConstFunction extends ValueSource {
         other = mv1;
       }
 
-      if (constants != null) {
-        if (other instanceof VectorValueSource) {
-          //TODO assert that other is not multi-value
-          return new HaversineConstFunction(constants[0], constants[1], (VectorValueSource)other);
-        } else if (other instanceof GeoHashValueSource) {
-          //other may be multiValue
-          return new HaversineMultiConstFunction(constants[0],constants[1],(GeoHashValueSource)other,true);
+      //how multiple points combine; only for GeoHashField
+      String modeStr = fp.getParam(MODE);
+      HaversineMultiConstFunction.Mode mode;
+      try {
+        mode = modeStr == null ? HaversineMultiConstFunction.Mode.MIN : HaversineMultiConstFunction.Mode.parse(modeStr);
+      } catch (IllegalArgumentException e) {
+        throw new ParseException("geodist - unknown " + MODE + ": " + modeStr);
+      }
+      if (constants != null && other instanceof GeoHashValueSource) {
+        //other may be multiValue
+        double withinDistance = 0;
+        if (mode == HaversineMultiConstFunction.Mode.COUNT_WITHIN) {
+          String d = fp.getParam(SpatialParams.DISTANCE);
+          if (d == null)
+            throw new ParseException("geodist - " + MODE + "=countWithin requires " + SpatialParams.DISTANCE);
+          try {
+            withinDistance = Double.parseDouble(d);
+          } catch (NumberFormatException e) {
+            throw new ParseException("geodist - bad " + SpatialParams.DISTANCE + ": " + d);
+          }
         }
+        return new HaversineMultiConstFunction(constants[0], constants[1], (GeoHashValueSource) other, mode,
+            withinDistance, parallel);
+      }
+      if (modeStr != null)
+        throw new ParseException("geodist - " + MODE + " is only supported for a GeoHashField and a constant point");
+      if (constants != null && other instanceof VectorValueSource) {
+        //TODO assert that other is not multi-value
+        return new HaversineConstFunction(constants[0], constants[1], (VectorValueSource)other);
       }
       //TODO assert that neither mv1 nor mv2 are multi-value
       return new HaversineFunction(mv1, mv2, DistanceUtils.EARTH_MEAN_RADIUS_KM, true);
@@ -181,6 +239,9 @@ public class HaversineConstFunction extends ValueSource {
   private final VectorValueSource p2;  // lat+lon, just saved for display/debugging
   private final ValueSource latSource;
   private final ValueSource lonSource;
+  //the FieldCache arrays of latSource and lonSource, if both are plain double fields; else null
+  private final CachedDoubles latCached;
+  private final CachedDoubles lonCached;
 
   private final double latCenterRad_cos; // cos(latCenter)
   private static final double EARTH_MEAN_DIAMETER = DistanceUtils.EARTH_MEAN_RADIUS_KM * 2;
@@ -192,6 +253,10 @@ public class HaversineConstFunction extends ValueSource {
     this.p2 = vs;
     this.latSource = p2.getSources().get(0);
     this.lonSource = p2.getSources().get(1);
+    CachedDoubles lat = CachedDoubles.of(latSource);
+    CachedDoubles lon = CachedDoubles.of(lonSource);
+    this.latCached = lon == null ? null : lat;
+    this.lonCached = lat == null ? null : lon;
     this.latCenterRad_cos = Math.cos(latCenter * DistanceUtils.DEGREES_TO_RADIANS);
   }
 
@@ -200,52 +265,253 @@ public class HaversineConstFunction extends ValueSource {
   }
 
   @Override
-  public DocValues getValues(Map context, IndexReader reader) throws IOException {
-    final DocValues latVals = latSource.getValues(context, reader);
-    final DocValues lonVals = lonSource.getValues(context, reader);
-    final double latCenterRad = this.latCenter * DistanceUtils.DEGREES_TO_RADIANS;
-    final double lonCenterRad = this.lonCenter * DistanceUtils.DEGREES_TO_RADIANS;
-    final double latCenterRad_cos = this.latCenterRad_cos;
-
-    return new DocValues() {
-      @Override
-      public float floatVal(int doc) {
-        return (float) doubleVal(doc);
-      }
+  public DistanceDocValues getValues(Map context, IndexReader reader) throws IOException {
+    return new DistanceDocValues(latSource.getValues(context, reader), lonSource.getValues(context, reader),
+        latCached == null ? null : latCached.get(reader), lonCached == null ? null : lonCached.get(reader));
+  }
 
-      @Override
-      public int intVal(int doc) {
-        return (int) doubleVal(doc);
-      }
+  /**
+   * The field and parser of a {@link DoubleFieldSource}, to get its values from the FieldCache as a primitive array,
+   * as the source itself does.  DoubleFieldSource doesn't expose them, so they're recovered from its description and
+   * confirmed with equals().
+   */
+  private static class CachedDoubles {
+    final String field;
+    final FieldCache.DoubleParser parser;
+
+    private CachedDoubles(String field, FieldCache.DoubleParser parser) {
+      this.field = field;
+      this.parser = parser;
+    }
 
-      @Override
-      public long longVal(int doc) {
-        return (long) doubleVal(doc);
-      }
+    /** Returns null if vs isn't a DoubleFieldSource with the default or the trie parser. */
+    static CachedDoubles of(ValueSource vs) {
+      if (vs.getClass() != DoubleFieldSource.class)
+        return null;
+      String desc = vs.description();
+      if (!desc.startsWith("double(") || !desc.endsWith(")"))
+        return null;
+      String field = desc.substring("double(".length(), desc.length() - 1);
+      if (new DoubleFieldSource(field, FieldCache.NUMERIC_UTILS_DOUBLE_PARSER).equals(vs))
+        return new CachedDoubles(field, FieldCache.NUMERIC_UTILS_DOUBLE_PARSER);
+      if (new DoubleFieldSource(field).equals(vs))
+        return new CachedDoubles(field, null);
+      return null;
+    }
 
-      @Override
-      public double doubleVal(int doc) {
-        double latRad = latVals.doubleVal(doc) * DistanceUtils.DEGREES_TO_RADIANS;
-        double lonRad = lonVals.doubleVal(doc) * DistanceUtils.DEGREES_TO_RADIANS;
-        double diffX = latCenterRad - latRad;
-        double diffY = lonCenterRad - lonRad;
-        double hsinX = Math.sin(diffX * 0.5);
-        double hsinY = Math.sin(diffY * 0.5);
-        double h = hsinX * hsinX +
-                (latCenterRad_cos * Math.cos(latRad) * hsinY * hsinY);
-        return (EARTH_MEAN_DIAMETER * Math.atan2(Math.sqrt(h), Math.sqrt(1 - h)));
-      }
+    double[] get(IndexReader reader) throws IOException {
+      return FieldCache.DEFAULT.getDoubles(reader, field, parser);
+    }
+  }
 
-      @Override
-      public String strVal(int doc) {
-        return Double.toString(doubleVal(doc));
+  /**
+   * The distances to the center.  Besides per doc, {@link #doubleVals(int[], int, double[])} calculates the distances
+   * of a block of docs at once.
+   */
+  public class DistanceDocValues extends DocValues {
+    private final DocValues latVals;
+    private final DocValues lonVals;
+    private final double[] lats;//the FieldCache arrays behind latVals and lonVals; null if not plain double fields
+    private final double[] lons;
+    private final double latCenterRad = latCenter * DistanceUtils.DEGREES_TO_RADIANS;
+    private final double lonCenterRad = lonCenter * DistanceUtils.DEGREES_TO_RADIANS;
+    private final double latCenterRad_cos = HaversineConstFunction.this.latCenterRad_cos;
+    //scratch for doubleVals()
+    private double[] latsRad = new double[0];
+    private double[] lonsRad = new double[0];
+
+    DistanceDocValues(DocValues latVals, DocValues lonVals, double[] lats, double[] lons) {
+      this.latVals = latVals;
+      this.lonVals = lonVals;
+      this.lats = lats;
+      this.lons = lons;
+    }
+
+    @Override
+    public float floatVal(int doc) {
+      return (float) doubleVal(doc);
+    }
+
+    @Override
+    public int intVal(int doc) {
+      return (int) doubleVal(doc);
+    }
+
+    @Override
+    public long longVal(int doc) {
+      return (long) doubleVal(doc);
+    }
+
+    @Override
+    public double doubleVal(int doc) {
+      double latRad = latVals.doubleVal(doc) * DistanceUtils.DEGREES_TO_RADIANS;
+      double lonRad = lonVals.doubleVal(doc) * DistanceUtils.DEGREES_TO_RADIANS;
+      double diffX = latCenterRad - latRad;
+      double diffY = lonCenterRad - lonRad;
+      double hsinX = Math.sin(diffX * 0.5);
+      double hsinY = Math.sin(diffY * 0.5);
+      double h = hsinX * hsinX +
+              (latCenterRad_cos * Math.cos(latRad) * hsinY * hsinY);
+      return (EARTH_MEAN_DIAMETER * Math.atan2(Math.sqrt(h), Math.sqrt(1 - h)));
+    }
+
+    /**
+     * Calculates the distances of the first n docs into out.  The coordinates are gathered first, straight from the
+     * FieldCache arrays for plain double fields, and then the distances are calculated in a loop over primitive arrays
+     * only.  Not thread-safe.
+     */
+    public void doubleVals(int[] docs, int n, double[] out) {
+      if (latsRad.length < n) {
+        latsRad = new double[ArrayUtil.oversize(n, RamUsageEstimator.NUM_BYTES_DOUBLE)];
+        lonsRad = new double[latsRad.length];
+      }
+      final double[] latsRad = this.latsRad;
+      final double[] lonsRad = this.lonsRad;
+      if (lats != null) {
+        final double[] lats = this.lats;
+        final double[] lons = this.lons;
+        for (int i = 0; i < n; i++) {
+          latsRad[i] = lats[docs[i]] * DistanceUtils.DEGREES_TO_RADIANS;
+          lonsRad[i] = lons[docs[i]] * DistanceUtils.DEGREES_TO_RADIANS;
+        }
+      } else {
+        for (int i = 0; i < n; i++) {
+          latsRad[i] = latVals.doubleVal(docs[i]) * DistanceUtils.DEGREES_TO_RADIANS;
+          lonsRad[i] = lonVals.doubleVal(docs[i]) * DistanceUtils.DEGREES_TO_RADIANS;
+        }
+      }
+      for (int i = 0; i < n; i++) {
+        final double hsinX = Math.sin((latCenterRad - latsRad[i]) * 0.5);
+        final double hsinY = Math.sin((lonCenterRad - lonsRad[i]) * 0.5);
+        final double h = hsinX * hsinX + latCenterRad_cos * Math.cos(latsRad[i]) * hsinY * hsinY;
+        out[i] = EARTH_MEAN_DIAMETER * Math.atan2(Math.sqrt(h), Math.sqrt(1 - h));
       }
+    }
+
+    @Override
+    public String strVal(int doc) {
+      return Double.toString(doubleVal(doc));
+    }
+
+    @Override
+    public String toString(int doc) {
+      return name() + '(' + latVals.toString(doc) + ',' + lonVals.toString(doc) + ',' + latCenter + ',' + lonCenter + ')';
+    }
+  }
 
-      @Override
-      public String toString(int doc) {
-        return name() + '(' + latVals.toString(doc) + ',' + lonVals.toString(doc) + ',' + latCenter + ',' + lonCenter + ')';
+  private static final FieldComparatorSource unweightedComparator = new FieldComparatorSource() {
+    @Override
+    public FieldComparator newComparator(String fieldname, int numHits, int sortPos, boolean reversed) {
+      throw new SolrException(SolrException.ErrorCode.SERVER_ERROR, "Unweighted use of sort " + fieldname);
+    }
+  };
+
+  @Override
+  public SortField getSortField(boolean reverse) throws IOException {
+    return new DistanceSortField(reverse);
+  }
+
+  class DistanceSortField extends SortField implements SolrSortField {
+    DistanceSortField(boolean reverse) {
+      super(description(), unweightedComparator, reverse);
+    }
+
+    public SortField weight(IndexSearcher searcher) throws IOException {
+      final Map context = newContext();
+      createWeight(context, searcher);
+      return new SortField(getField(), new FieldComparatorSource() {
+        @Override
+        public FieldComparator newComparator(String fieldname, int numHits, int sortPos, boolean reversed) {
+          return new DistanceComparator(context, numHits);
+        }
+      }, getReverse());
+    }
+  }
+
+  /**
+   * Compares by distance, calculating the distances of blocks of consecutive docs at once with
+   * {@link DistanceDocValues#doubleVals(int[], int, double[])}.  If most of a segment's docs in the blocks so far
+   * didn't match, then the rest of the segment is calculated per doc instead.
+   */
+  class DistanceComparator extends FieldComparator<Double> {
+    private static final int BLOCK_SIZE = 64;
+    private final Map fcontext;
+    private final double[] values;
+    private DistanceDocValues docVals;
+    private double bottom;
+
+    private final int[] blockDocs = new int[BLOCK_SIZE];
+    private final double[] blockValues = new double[BLOCK_SIZE];
+    private int blockStart, blockEnd;//[start,end) doc ids of blockValues
+    private int maxDoc;
+    private boolean perDoc;
+    private int calculated, used;//for this segment; used counts each doc once
+    private int lastDoc = -1;//compareBottom(doc) is followed by copy(slot, doc) for a competitive doc
+    private double lastValue;
+
+    DistanceComparator(Map fcontext, int numHits) {
+      this.fcontext = fcontext;
+      this.values = new double[numHits];
+    }
+
+    private double distance(int doc) {
+      if (doc == lastDoc)
+        return lastValue;
+      lastDoc = doc;
+      if (perDoc)
+        return lastValue = docVals.doubleVal(doc);
+      if (doc < blockStart || doc >= blockEnd) {
+        if (calculated >= 16 * BLOCK_SIZE && used * 4 < calculated) {
+          perDoc = true;//the hits are sparse
+          return lastValue = docVals.doubleVal(doc);
+        }
+        blockStart = doc;
+        blockEnd = Math.min(doc + BLOCK_SIZE, maxDoc);
+        final int n = blockEnd - blockStart;
+        for (int i = 0; i < n; i++) {
+          blockDocs[i] = doc + i;
+        }
+        docVals.doubleVals(blockDocs, n, blockValues);
+        calculated += n;
       }
-    };
+      used++;
+      return lastValue = blockValues[doc - blockStart];
+    }
+
+    @Override
+    public int compare(int slot1, int slot2) {
+      return Double.compare(values[slot1], values[slot2]);
+    }
+
+    @Override
+    public void setBottom(int slot) {
+      bottom = values[slot];
+    }
+
+    @Override
+    public int compareBottom(int doc) {
+      return Double.compare(bottom, distance(doc));
+    }
+
+    @Override
+    public void copy(int slot, int doc) {
+      values[slot] = distance(doc);
+    }
+
+    @Override
+    public void setNextReader(IndexReader reader, int docBase) throws IOException {
+      docVals = getValues(fcontext, reader);
+      maxDoc = reader.maxDoc();
+      blockStart = blockEnd = 0;
+      perDoc = false;
+      calculated = used = 0;
+      lastDoc = -1;
+    }
+
+    @Override
+    public Double value(int slot) {
+      return values[slot];
+    }
   }
 
   @Override
@@ -17,8 +17,14 @@ package solr2155.solr.search.function.distance;
  */
 
 import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.search.FieldComparator;
+import org.apache.lucene.search.FieldComparatorSource;
+import org.apache.lucene.search.IndexSearcher;
 import org.apache.lucene.search.Searcher;
+import org.apache.lucene.search.SortField;
 import org.apache.lucene.spatial.DistanceUtils;
+import org.apache.solr.common.SolrException;
+import org.apache.solr.search.SolrSortField;
 import org.apache.solr.search.function.DocValues;
 import org.apache.solr.search.function.ValueSource;
 import solr2155.lucene.spatial.geometry.shape.Point2D;
@@ -30,113 +36,581 @@ import static java.util.Collections.*;
 
 /**
  * Haversine function for use with {@link GeoHashValueSource} in which multiple points are supported.
+ * <p/>
+ * Per point, only the haversine of the central angle, sin&sup2;(&theta;/2), is calculated since it's monotonic with
+ * the distance; the distance is then calculated once per doc from the nearest (or farthest) point's value.  If the
+ * points have unit vectors then the haversine is simply a quarter of the squared chord length, without any trig.
+ * <p/>
+ * Sorting likewise ranks by the haversine and only converts the top documents' values to a distance.  Once the sort
+ * queue is full, a document whose latitude differs from the center's by more than the central angle of the current
+ * bottom can't compete and is skipped without any trig (the angle can't be less than the latitude difference).
+ * <p/>
+ * The {@link Mode} determines how a document's points are combined: the nearest (the default), the farthest, the
+ * average distance, or the number of points within a distance.
  */
 public class HaversineMultiConstFunction extends ValueSource {
 
+  /** How the distances to a document's points are combined into its value. */
+  public static enum Mode {
+    /** The distance to the nearest point. */
+    MIN,
+    /** The distance to the farthest point. */
+    MAX,
+    /** The average distance to the points. */
+    AVG,
+    /** The number of points within a distance. */
+    COUNT_WITHIN;
+
+    /** Parses min, max, avg or countWithin (case insensitive). */
+    public static Mode parse(String str) {
+      if ("countWithin".equalsIgnoreCase(str))
+        return COUNT_WITHIN;
+      return valueOf(str.toUpperCase(Locale.ENGLISH));
+    }
+  }
+
+  private static final double EARTH_MEAN_DIAMETER = DistanceUtils.EARTH_MEAN_RADIUS_KM * 2;
+  /** Radians added to the sort bottom's central angle before comparing a latitude difference to it, for rounding. */
+  private static final double SORT_BOUND_MARGIN = 1e-9;
+
   private final double latCenter;
   private final double lonCenter;
   private final GeoHashValueSource vs;
-  private final boolean asc;
+  private final Mode mode;
+  private final double withinDistance;//COUNT_WITHIN only
+  private final ParallelDistances parallel;//may be null
+  private final boolean asc;//nearest first; i.e. not MAX
+
+  //derived from latCenter & lonCenter:
+  private final double latCenterRad, lonCenterRad, latCenterRad_cos;
+  private final double xCenter, yCenter, zCenter;//unit vector
 
   public HaversineMultiConstFunction(double latCenter, double lonCenter, GeoHashValueSource vs, boolean asc) {
+    this(latCenter, lonCenter, vs, asc ? Mode.MIN : Mode.MAX, 0);
+  }
+
+  /**
+   * @param withinDistance in kilometers, for {@link Mode#COUNT_WITHIN}; otherwise ignored.
+   */
+  public HaversineMultiConstFunction(double latCenter, double lonCenter, GeoHashValueSource vs, Mode mode,
+                                     double withinDistance) {
+    this(latCenter, lonCenter, vs, mode, withinDistance, null);
+  }
+
+  /**
+   * @param parallel calculates ahead of a sort in a segment with many hits; may be null.  It isn't part of equals().
+   */
+  public HaversineMultiConstFunction(double latCenter, double lonCenter, GeoHashValueSource vs, Mode mode,
+                                     double withinDistance, ParallelDistances parallel) {
+    this.parallel = parallel;
     this.latCenter = latCenter;
     this.lonCenter = lonCenter;
     this.vs = vs;
-    this.asc = asc;
+    this.mode = mode;
+    this.withinDistance = mode == Mode.COUNT_WITHIN ? withinDistance : 0;
+    this.asc = mode != Mode.MAX;
+    this.latCenterRad = latCenter * DistanceUtils.DEGREES_TO_RADIANS;
+    this.lonCenterRad = lonCenter * DistanceUtils.DEGREES_TO_RADIANS;
+    this.latCenterRad_cos = Math.cos(latCenterRad);
+    this.xCenter = latCenterRad_cos * Math.cos(lonCenterRad);
+    this.yCenter = latCenterRad_cos * Math.sin(lonCenterRad);
+    this.zCenter = Math.sin(latCenterRad);
+  }
+
+  public Mode getMode() {
+    return mode;
+  }
+
+  public GeoHashValueSource getValueSource() {
+    return vs;
   }
 
   protected String name() {
     return "geodist";
   }
 
+  /** Converts the haversine of the central angle, sin&sup2;(&theta;/2), to a distance in kilometers. */
+  static double havToDistance(double hav) {
+    if (hav > 1)//possible due to rounding of unit vectors
+      hav = 1;
+    return EARTH_MEAN_DIAMETER * Math.atan2(Math.sqrt(hav), Math.sqrt(1 - hav));
+  }
+
+  /** Converts a distance in kilometers to the haversine of the central angle, the inverse of havToDistance. */
+  public static double distanceToHav(double distance) {
+    final double hsin = Math.sin(Math.min(distance / EARTH_MEAN_DIAMETER, Math.PI / 2));
+    return hsin * hsin;
+  }
+
+  /** The haversine of the central angle between the center and the given lat-lon in degrees. */
+  private double hav(double lat, double lon) {
+    final double latRad = lat * DistanceUtils.DEGREES_TO_RADIANS;
+    final double hsinLat = Math.sin((latRad - latCenterRad) * 0.5);
+    final double hsinLon = Math.sin((lon * DistanceUtils.DEGREES_TO_RADIANS - lonCenterRad) * 0.5);
+    return hsinLat * hsinLat + latCenterRad_cos * Math.cos(latRad) * hsinLon * hsinLon;
+  }
+
+  /** The haversine of the central angle between the center and the given unit vector. */
+  private double hav(double x, double y, double z) {
+    final double dx = x - xCenter;
+    final double dy = y - yCenter;
+    final double dz = z - zCenter;
+    return (dx * dx + dy * dy + dz * dz) * 0.25;
+  }
+
   @Override
-  public DocValues getValues(Map context, IndexReader reader) throws IOException {
+  public MultiPointDocValues getValues(Map context, IndexReader reader) throws IOException {
+    switch (mode) {
+      case MIN:
+      case MAX:
+        return getHaversineValues(context, reader);
+      case AVG:
+        return new AvgDocValues(vs.getValues(context, reader));
+      case COUNT_WITHIN:
+        return new CountWithinDocValues(vs.getValues(context, reader));
+      default:
+        throw new IllegalStateException("Unknown mode " + mode);
+    }
+  }
+
+  /**
+   * The values of a {@link Mode#MIN} or {@link Mode#MAX} function, with the haversine to each doc's nearest or
+   * farthest point; for sorting, and for callers that want that point.
+   * @throws IllegalStateException for the other modes, which don't measure to one point.
+   */
+  public HaversineDocValues getHaversineValues(Map context, IndexReader reader) throws IOException {
+    if (mode != Mode.MIN && mode != Mode.MAX)
+      throw new IllegalStateException("No haversine for mode " + mode);
     final GeoHashValueSource.GeoHashDocValues ghDocVals = vs.getValues(context,reader);
-    final double latCenterRad = this.latCenter * DistanceUtils.DEGREES_TO_RADIANS;
-    final double lonCenterRad = this.lonCenter * DistanceUtils.DEGREES_TO_RADIANS;
+    if (ghDocVals.isSingleValued() && !ghDocVals.hasUnitVectors())
+      return new SingleDocValues(ghDocVals);
+    return asc ? new MinDocValues(ghDocVals) : new MaxDocValues(ghDocVals);
+  }
 
-    return new DocValues() {
-      public float floatVal(int doc) {
-        return (float) doubleVal(doc);
-      }
+  /** Single-valued points without unit vectors, for which the nearest and farthest point are the same. */
+  private class SingleDocValues extends HaversineDocValues {
+    SingleDocValues(GeoHashValueSource.GeoHashDocValues ghDocVals) {
+      super(ghDocVals);
+    }
 
-      public int intVal(int doc) {
-        return (int) doubleVal(doc);
+    @Override
+    public double havVal(int doc) {
+      final double lat = ghDocVals.getLat(doc);
+      if (Double.isNaN(lat)) {
+        lastPoint = -1;
+        return noPointHav();
       }
+      lastPoint = ghDocVals.pointsStart(doc);
+      return hav(lat, ghDocVals.getLon(doc));
+    }
+
+    @Override
+    public double latGap(int doc) {
+      final double lat = ghDocVals.getLat(doc);
+      if (Double.isNaN(lat))
+        return 0;
+      return Math.abs(lat * DistanceUtils.DEGREES_TO_RADIANS - latCenterRad);
+    }
+  }
+
+  private class MinDocValues extends HaversineDocValues {
+    MinDocValues(GeoHashValueSource.GeoHashDocValues ghDocVals) {
+      super(ghDocVals);
+    }
 
-      public long longVal(int doc) {
-        return (long) doubleVal(doc);
+    @Override
+    public double havVal(int doc) {
+      final int start = ghDocVals.pointsStart(doc);
+      final int end = ghDocVals.pointsEnd(doc);
+      int point = -1;
+      double result = Double.POSITIVE_INFINITY;
+      if (xs != null) {
+        for (int i = start; i < end; i++) {
+          final double h = hav(xs[i], ys[i], zs[i]);
+          if (h < result) {
+            result = h;
+            point = i;
+          }
+        }
+      } else {
+        for (int i = start; i < end; i++) {
+          final double h = hav(lats[i], lons[i]);
+          if (h < result) {
+            result = h;
+            point = i;
+          }
+        }
       }
+      lastPoint = point;
+      return point < 0 ? noPointHav() : result;
+    }
+
+    @Override
+    public double latGap(int doc) {
+      if (xs != null)
+        return 0;//the haversine is cheap enough
+      final int end = ghDocVals.pointsEnd(doc);
+      double result = Double.POSITIVE_INFINITY;//no points: at least as far as any bottom
+      for (int i = ghDocVals.pointsStart(doc); i < end; i++)
+        result = Math.min(result, Math.abs(lats[i] * DistanceUtils.DEGREES_TO_RADIANS - latCenterRad));
+      return result;
+    }
+  }
+
+  private class MaxDocValues extends HaversineDocValues {
+    MaxDocValues(GeoHashValueSource.GeoHashDocValues ghDocVals) {
+      super(ghDocVals);
+    }
 
-      public double doubleVal(int doc) {
-        double distance;
-        if (asc == false) {
-          distance = 0.0;
-        } else {
-          distance = DistanceUtils.EARTH_MEAN_RADIUS_KM * Math.PI;//v1.0.5
+    @Override
+    public double havVal(int doc) {
+      final int start = ghDocVals.pointsStart(doc);
+      final int end = ghDocVals.pointsEnd(doc);
+      int point = -1;
+      double result = Double.NEGATIVE_INFINITY;
+      if (xs != null) {
+        for (int i = start; i < end; i++) {
+          final double h = hav(xs[i], ys[i], zs[i]);
+          if (h > result) {
+            result = h;
+            point = i;
+          }
         }
-        List<Point2D> geoList = ghDocVals.point2Ds(doc);
-        if (geoList != null) {
-          for (Point2D point : geoList) {
-            double distanceNew = distance(point);
-            if ((asc == true && distanceNew < distance) ||
-                    (asc == false && distanceNew > distance)) {
-              distance = distanceNew;
-            }
+      } else {
+        for (int i = start; i < end; i++) {
+          final double h = hav(lats[i], lons[i]);
+          if (h > result) {
+            result = h;
+            point = i;
           }
         }
-        return distance;
       }
+      lastPoint = point;
+      return point < 0 ? noPointHav() : result;
+    }
+
+    @Override
+    public double latGap(int doc) {
+      if (xs != null)
+        return 0;
+      final int end = ghDocVals.pointsEnd(doc);
+      double result = 0;
+      for (int i = ghDocVals.pointsStart(doc); i < end; i++)
+        result = Math.max(result, Math.abs(lats[i] * DistanceUtils.DEGREES_TO_RADIANS - latCenterRad));
+      return result;
+    }
+  }
+
+  /** The average distance; a doc without points has that of the antipode, like {@link Mode#MIN}. */
+  private class AvgDocValues extends MultiPointDocValues {
+    AvgDocValues(GeoHashValueSource.GeoHashDocValues ghDocVals) {
+      super(ghDocVals);
+    }
 
-      private double distance(Point2D point) {
-        double lat = point.getY();
-        double lon = point.getX();
-        double latRad = lat * DistanceUtils.DEGREES_TO_RADIANS;
-        double lonRad = lon * DistanceUtils.DEGREES_TO_RADIANS;
-        double distanceNew = DistanceUtils.haversine(latCenterRad, lonCenterRad, latRad, lonRad, DistanceUtils.EARTH_MEAN_RADIUS_KM);
-        return distanceNew;
+    @Override
+    public double doubleVal(int doc) {
+      final int start = ghDocVals.pointsStart(doc);
+      final int end = ghDocVals.pointsEnd(doc);
+      if (start == end)
+        return havToDistance(noPointHav());
+      double sum = 0;
+      if (xs != null) {
+        for (int i = start; i < end; i++)
+          sum += havToDistance(hav(xs[i], ys[i], zs[i]));
+      } else {
+        for (int i = start; i < end; i++)
+          sum += havToDistance(hav(lats[i], lons[i]));
       }
+      return sum / (end - start);
+    }
+  }
+
+  private class CountWithinDocValues extends MultiPointDocValues {
+    final double maxHav = distanceToHav(withinDistance);
+
+    CountWithinDocValues(GeoHashValueSource.GeoHashDocValues ghDocVals) {
+      super(ghDocVals);
+    }
 
-      public String strVal(int doc) {
-        return Double.toString(doubleVal(doc));
+    @Override
+    public int intVal(int doc) {
+      final int end = ghDocVals.pointsEnd(doc);
+      int count = 0;
+      if (xs != null) {
+        for (int i = ghDocVals.pointsStart(doc); i < end; i++)
+          count += hav(xs[i], ys[i], zs[i]) <= maxHav ? 1 : 0;
+      } else {
+        for (int i = ghDocVals.pointsStart(doc); i < end; i++)
+          count += hav(lats[i], lons[i]) <= maxHav ? 1 : 0;
       }
+      return count;
+    }
 
-      @Override
-      public String toString(int doc) {
-        int maxPoints = 3;
-        List<Point2D> geoList = ghDocVals.point2Ds(doc);
-        boolean truncated = false;
-
-        TreeMap<Double, Point2D> heap = new TreeMap<Double, Point2D>(
-            !asc ? reverseOrder() : reverseOrder(reverseOrder()));
-        for (Point2D p : geoList == null ? Collections.<Point2D>emptyList() : geoList) {
-          heap.put(distance(p), p);
-          if (!heap.isEmpty() && heap.size() > maxPoints) {
-            heap.remove(heap.lastKey());
-            truncated = true;
-          }
+    @Override
+    public double doubleVal(int doc) {
+      return intVal(doc);
+    }
+
+    @Override
+    public String toString(int doc) {
+      return description() + '=' + intVal(doc);
+    }
+  }
+
+  /** Distance function values common to all modes and data layouts; subclasses implement doubleVal(doc). */
+  public abstract class MultiPointDocValues extends DocValues {
+    protected final GeoHashValueSource.GeoHashDocValues ghDocVals;
+    protected final double[] lats, lons;
+    protected final double[] xs, ys, zs;//null if no unit vectors
+
+    MultiPointDocValues(GeoHashValueSource.GeoHashDocValues ghDocVals) {
+      this.ghDocVals = ghDocVals;
+      lats = ghDocVals.pointLats();
+      lons = ghDocVals.pointLons();
+      xs = ghDocVals.pointXs();
+      ys = ghDocVals.pointYs();
+      zs = ghDocVals.pointZs();
+    }
+
+    /**
+     * The haversine of the central angle to a point, given its index as with
+     * {@link HaversineDocValues#getLastPoint()}.
+     */
+    public double pointHav(int point) {
+      if (xs != null)
+        return hav(xs[point], ys[point], zs[point]);
+      return hav(lats[point], lons[point]);
+    }
+
+    public GeoHashValueSource.GeoHashDocValues getGeoHashDocValues() {
+      return ghDocVals;
+    }
+
+    /** Whether the document has any points; one without has the distance of {@link #noPointHav()}. */
+    public boolean hasPoints(int doc) {
+      return ghDocVals.pointsEnd(doc) > ghDocVals.pointsStart(doc);
+    }
+
+    /** The haversine for a document without any points: that of the antipode if ascending, else 0. */
+    protected double noPointHav() {
+      return asc ? 1.0 : 0.0;//v1.0.5
+    }
+
+    public float floatVal(int doc) {
+      return (float) doubleVal(doc);
+    }
+
+    public int intVal(int doc) {
+      return (int) doubleVal(doc);
+    }
+
+    public long longVal(int doc) {
+      return (long) doubleVal(doc);
+    }
+
+    public abstract double doubleVal(int doc);
+
+    protected double distance(Point2D point) {
+      return havToDistance(hav(point.getY(), point.getX()));
+    }
+
+    public String strVal(int doc) {
+      return Double.toString(doubleVal(doc));
+    }
+
+    @Override
+    public String toString(int doc) {
+      int maxPoints = 3;
+      List<Point2D> geoList = ghDocVals.point2Ds(doc);
+      boolean truncated = false;
+
+      TreeMap<Double, Point2D> heap = new TreeMap<Double, Point2D>(
+          !asc ? reverseOrder() : reverseOrder(reverseOrder()));
+      for (Point2D p : geoList == null ? Collections.<Point2D>emptyList() : geoList) {
+        heap.put(distance(p), p);
+        if (!heap.isEmpty() && heap.size() > maxPoints) {
+          heap.remove(heap.lastKey());
+          truncated = true;
         }
-        return name() + '(' + dump(heap.values()) +
-            (truncated ? "..." : "") +
-            ',' + latCenter + ',' + lonCenter + ')';
       }
+      return name() + '(' + dump(heap.values()) +
+          (truncated ? "..." : "") +
+          ',' + latCenter + ',' + lonCenter + ')';
+    }
 
-      private StringBuilder dump(Collection<Point2D> points) {
-        StringBuilder sb = new StringBuilder();
-        boolean first = true;
-        for (Point2D p : points) {
-          if (!first) {
-            sb.append(' ');
-          }
-          sb.append(p.getY());
-          sb.append(',');
-          sb.append(p.getX());
+    private StringBuilder dump(Collection<Point2D> points) {
+      StringBuilder sb = new StringBuilder();
+      boolean first = true;
+      for (Point2D p : points) {
+        if (!first) {
+          sb.append(' ');
+        }
+        sb.append(p.getY());
+        sb.append(',');
+        sb.append(p.getX());
+
+        first = false;
+      }
+      return sb;
+    }
+  }
+
+  /**
+   * The values of {@link Mode#MIN} and {@link Mode#MAX}: the distance to one of each doc's points, the nearest or
+   * farthest, from a haversine that sorts like it.  Subclasses implement havVal(doc).
+   */
+  public abstract class HaversineDocValues extends MultiPointDocValues {
+    /** The point of the last {@link #havVal(int)}; -1 if the doc had none. */
+    protected int lastPoint = -1;
+
+    HaversineDocValues(GeoHashValueSource.GeoHashDocValues ghDocVals) {
+      super(ghDocVals);
+    }
 
-          first = false;
+    /**
+     * The haversine of the central angle to the doc's nearest point (farthest if descending), which sorts the same as
+     * {@link #doubleVal(int)} but is cheaper.  The point is then {@link #getLastPoint()}.
+     */
+    public abstract double havVal(int doc);
+
+    /**
+     * The index of the point which the last call to {@link #havVal(int)} measured to, into the arrays of
+     * {@link GeoHashValueSource.GeoHashDocValues#pointLats()} &amp; pointLons(); -1 if the doc had no points.
+     */
+    public int getLastPoint() {
+      return lastPoint;
+    }
+
+    /**
+     * A lower bound, in radians, of the central angle {@link #havVal(int)} is derived from; 0 if there's no bound
+     * cheaper than havVal itself.
+     */
+    public double latGap(int doc) {
+      return 0;
+    }
+
+    @Override
+    public double doubleVal(int doc) {
+      return havToDistance(havVal(doc));
+    }
+  }
+
+  private static final FieldComparatorSource unweightedComparator = new FieldComparatorSource() {
+    @Override
+    public FieldComparator newComparator(String fieldname, int numHits, int sortPos, boolean reversed) {
+      throw new SolrException(SolrException.ErrorCode.SERVER_ERROR, "Unweighted use of sort " + fieldname);
+    }
+  };
+
+  @Override
+  public SortField getSortField(boolean reverse) throws IOException {
+    if (mode == Mode.MIN || mode == Mode.MAX)
+      return new HaversineSortField(reverse);
+    return super.getSortField(reverse);//by doubleVal
+  }
+
+  class HaversineSortField extends SortField implements SolrSortField {
+    HaversineSortField(boolean reverse) {
+      super(description(), unweightedComparator, reverse);
+    }
+
+    public SortField weight(IndexSearcher searcher) throws IOException {
+      final Map context = newContext();
+      createWeight(context, searcher);
+      return new SortField(getField(), new FieldComparatorSource() {
+        @Override
+        public FieldComparator newComparator(String fieldname, int numHits, int sortPos, boolean reversed) {
+          return new HaversineComparator(context, numHits, reversed);
         }
-        return sb;
+      }, getReverse());
+    }
+  }
+
+  /**
+   * Compares by haversine; {@link #value(int)} is the distance.  Each doc calculated is also put into the request's
+   * {@link DistanceMemo}, if one was registered.  With {@link ParallelDistances}, once a segment has many hits the rest
+   * of it is calculated by worker threads.
+   */
+  class HaversineComparator extends FieldComparator<Double> {
+    private final Map fcontext;
+    private final double[] havs;
+    private final boolean reversed;
+    private final DistanceMemo memo;//may be null
+    private HaversineDocValues docVals;
+    private IndexReader reader;
+    private int docBase;
+    private int segmentHits;
+    private ParallelDistances.Segment calculated;//of this segment; may be null
+    private double bottom;
+    private double bottomAngle;
+    //compareBottom() is usually followed by copy() of the same doc
+    private int lastDoc = -1;
+    private double lastHav;
+
+    HaversineComparator(Map fcontext, int numHits, boolean reversed) {
+      this.fcontext = fcontext;
+      this.havs = new double[numHits];
+      this.reversed = reversed;
+      this.memo = DistanceMemo.current(HaversineMultiConstFunction.this);
+    }
+
+    private double havVal(int doc) {
+      if (calculated != null && calculated.covers(doc)) {
+        final double hav = calculated.hav(doc);
+        if (memo != null)
+          memo.put(docBase + doc, hav, calculated.point(doc));
+        return hav;
       }
-    };
+      if (parallel != null && ++segmentHits == parallel.getThreshold())
+        calculated = parallel.calculate(HaversineMultiConstFunction.this, fcontext, reader, doc + 1, memo != null);
+      final double hav = docVals.havVal(doc);
+      if (memo != null)
+        memo.put(docBase + doc, hav, docVals.getLastPoint());
+      return hav;
+    }
+
+    @Override
+    public int compare(int slot1, int slot2) {
+      return Double.compare(havs[slot1], havs[slot2]);
+    }
+
+    @Override
+    public void setBottom(int slot) {
+      bottom = havs[slot];
+      bottomAngle = 2 * Math.asin(Math.sqrt(Math.min(bottom, 1))) + SORT_BOUND_MARGIN;
+    }
+
+    @Override
+    public int compareBottom(int doc) {
+      if (!reversed && docVals.latGap(doc) > bottomAngle)
+        return -1;//further than the bottom
+      lastDoc = doc;
+      lastHav = havVal(doc);
+      return Double.compare(bottom, lastHav);
+    }
+
+    @Override
+    public void copy(int slot, int doc) {
+      havs[slot] = doc == lastDoc ? lastHav : havVal(doc);
+    }
+
+    @Override
+    public void setNextReader(IndexReader reader, int docBase) throws IOException {
+      docVals = getHaversineValues(fcontext, reader);
+      this.reader = reader;
+      this.docBase = docBase;
+      lastDoc = -1;
+      segmentHits = 0;
+      if (calculated != null) {
+        calculated.cancel();
+        calculated = null;
+      }
+    }
+
+    @Override
+    public Double value(int slot) {
+      return havToDistance(havs[slot]);
+    }
   }
 
   @Override
@@ -150,7 +624,7 @@ public class HaversineMultiConstFunction extends ValueSource {
     HaversineMultiConstFunction other = (HaversineMultiConstFunction) o;
     return this.latCenter == other.latCenter
         && this.lonCenter == other.lonCenter
-        && this.asc == other.asc && this.vs.equals(other.vs);
+        && this.mode == other.mode && this.withinDistance == other.withinDistance && this.vs.equals(other.vs);
   }
 
   @Override
@@ -161,10 +635,15 @@ public class HaversineMultiConstFunction extends ValueSource {
     result = 31 * result + (int) (temp ^ (temp >>> 32));
     temp = Double.doubleToRawLongBits(lonCenter);
     result = 31 * result + (int) (temp ^ (temp >>> 32));
+    result = 31 * result + mode.hashCode();
+    temp = Double.doubleToRawLongBits(withinDistance);
+    result = 31 * result + (int) (temp ^ (temp >>> 32));
     return result;
   }
 
   public String description() {
-    return name() + '(' + vs.toString() + ',' + latCenter + ',' + lonCenter + ')';
+    return name() + '(' + vs.toString() + ',' + latCenter + ',' + lonCenter
+        + (mode == Mode.MIN ? "" : ",mode=" + mode + (mode == Mode.COUNT_WITHIN ? "," + withinDistance : ""))
+        + ')';
   }
 }
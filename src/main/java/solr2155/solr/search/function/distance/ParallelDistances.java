@@ -0,0 +1,234 @@
+package solr2155.solr.search.function.distance;
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.solr.common.SolrException;
+
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Calculates the haversines of a segment's upcoming docs on a pool of worker threads, for sorting by a
+ * {@link HaversineMultiConstFunction}.  The sort collects docs in order on one thread; once it has collected
+ * "threshold" hits in a segment, the hits are evidently dense, so the workers calculate chunks of the docs following
+ * the collector, a chunk per thread ahead of it.  Configured on the geodist() value source parser:
+ * <pre>
+ *   &lt;valueSourceParser name="geodist" class="...HaversineConstFunction$HaversineValueSourceParser"&gt;
+ *     &lt;int name="parallelThreshold"&gt;100000&lt;/int&gt;
+ *     &lt;int name="parallelThreads"&gt;4&lt;/int&gt;
+ *     &lt;int name="parallelChunkSize"&gt;4096&lt;/int&gt;
+ *   &lt;/valueSourceParser&gt;
+ * </pre>
+ * The threads default to the number of processors.  Docs that don't match are calculated too; that's the price of
+ * calculating ahead, so once fewer than 1 in {@link #SPARSE_RATIO} docs of the chunks passed were hits, the rest of the
+ * segment is calculated by the collector.  Either way, no more than a chunk per thread is calculated beyond the last doc
+ * collected: Lucene tells a comparator when a segment ends but not when the search does.
+ */
+public class ParallelDistances {
+
+  /** The default docs per chunk, so that the hand-off costs little compared to the calculations. */
+  public static final int DEFAULT_CHUNK_SIZE = 4096;
+  /** Calculating ahead stops when fewer than 1 in this many of the docs passed were hits. */
+  static final int SPARSE_RATIO = 8;
+
+  private final int threshold;
+  private final int threads;
+  private final int chunkSize;
+  private ExecutorService executor;//lazy
+
+  public ParallelDistances(int threshold, int threads) {
+    this(threshold, threads, DEFAULT_CHUNK_SIZE);
+  }
+
+  public ParallelDistances(int threshold, int threads, int chunkSize) {
+    if (threshold <= 0 || threads <= 0 || chunkSize <= 0)
+      throw new IllegalArgumentException("threshold, threads and chunkSize must be positive");
+    this.threshold = threshold;
+    this.threads = threads;
+    this.chunkSize = chunkSize;
+  }
+
+  /** The number of hits in a segment after which the rest of it is calculated in parallel. */
+  public int getThreshold() {
+    return threshold;
+  }
+
+  /** The idle workers stop after a while, so a pool left behind by a reloaded core holds no threads. */
+  private synchronized ExecutorService getExecutor() {
+    if (executor == null) {
+      final AtomicInteger count = new AtomicInteger();
+      ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+          new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+        public Thread newThread(Runnable r) {
+          Thread thread = new Thread(r, "geodist-" + count.incrementAndGet());
+          thread.setDaemon(true);
+          return thread;
+        }
+      });
+      pool.allowCoreThreadTimeOut(true);
+      executor = pool;
+    }
+    return executor;
+  }
+
+  /**
+   * Starts calculating the haversines of the segment's docs from "from" on.  The segment's values are got from the
+   * function for each chunk, since they aren't thread-safe.
+   */
+  Segment calculate(HaversineMultiConstFunction function, Map fcontext, IndexReader reader, int from,
+                    boolean withPoints) {
+    return new Segment(function, fcontext, reader, from, withPoints);
+  }
+
+  /**
+   * The haversines (and optionally the nearest points) of the chunks of a segment's docs from "from" on, calculated a
+   * chunk per thread ahead of the collector into a ring of buffers.
+   */
+  class Segment {
+    private final HaversineMultiConstFunction function;
+    private final Map fcontext;
+    private final IndexReader reader;
+    private final int from, maxDoc;
+    private final double[][] havs;//by buffer, chunk % buffers
+    private final int[][] points;//null if not withPoints
+    private final Future<?>[] futures;//by buffer
+    private int submitted;//chunks submitted
+    private int current = -1;//the chunk of the last doc asked for; it's done
+    private int hits;//docs asked for since the start of the chunk last checked for sparseness
+    private int checkedChunk;//that chunk
+    private boolean stopped;//no more chunks are submitted
+
+    Segment(HaversineMultiConstFunction function, Map fcontext, IndexReader reader, int from, boolean withPoints) {
+      this.function = function;
+      this.fcontext = fcontext;
+      this.reader = reader;
+      this.from = from;
+      this.maxDoc = reader.maxDoc();
+      final int buffers = threads + 1;//those ahead, and the collector's
+      this.havs = new double[buffers][];
+      this.points = withPoints ? new int[buffers][] : null;
+      this.futures = new Future<?>[buffers];
+      for (int i = 0; i < threads; i++) {
+        submit();
+      }
+    }
+
+    private int chunkStart(int chunk) {
+      return from + chunk * chunkSize;
+    }
+
+    /** Submits the next chunk, if there's one; its buffer's chunk has been passed. */
+    private void submit() {
+      final int chunkStart = chunkStart(submitted);
+      if (stopped || chunkStart >= maxDoc)
+        return;
+      final int chunkEnd = Math.min(maxDoc, chunkStart + chunkSize);
+      final int buffer = submitted % futures.length;
+      if (havs[buffer] == null) {
+        havs[buffer] = new double[chunkSize];
+        if (points != null)
+          points[buffer] = new int[chunkSize];
+      }
+      final double[] chunkHavs = havs[buffer];
+      final int[] chunkPoints = points == null ? null : points[buffer];
+      futures[buffer] = getExecutor().submit(new Callable<Object>() {
+        public Object call() throws Exception {
+          HaversineMultiConstFunction.HaversineDocValues docVals = function.getHaversineValues(fcontext, reader);
+          for (int doc = chunkStart; doc < chunkEnd; doc++) {
+            chunkHavs[doc - chunkStart] = docVals.havVal(doc);
+            if (chunkPoints != null)
+              chunkPoints[doc - chunkStart] = docVals.getLastPoint();
+          }
+          return null;
+        }
+      });
+      submitted++;
+    }
+
+    /**
+     * Whether the doc's chunk is calculated here; false once the docs have been too sparse.  Moving on to another
+     * chunk checks the sparseness of those passed.
+     */
+    boolean covers(int doc) {
+      if (doc < from)
+        return false;
+      final int chunk = (doc - from) / chunkSize;
+      if (chunk != current && current >= 0 && !stopped) {
+        //moving on: stop if few of the docs passed since the last check were hits
+        final int passed = chunkStart(chunk) - chunkStart(checkedChunk);
+        if (hits * SPARSE_RATIO < passed)
+          stop();
+        hits = 0;
+        checkedChunk = chunk;
+      }
+      //a chunk's buffer is reused by the chunk "buffers" later
+      return chunk < submitted && chunk >= submitted - futures.length && !(stopped && chunk != current);
+    }
+
+    /** The doc's haversine, waiting for its chunk if needed; only if {@link #covers(int)}. */
+    double hav(int doc) {
+      final int chunk = (doc - from) / chunkSize;
+      final int buffer = chunk % futures.length;
+      if (chunk != current) {
+        try {
+          futures[buffer].get();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new SolrException(SolrException.ErrorCode.SERVER_ERROR, e);
+        } catch (ExecutionException e) {
+          throw new SolrException(SolrException.ErrorCode.SERVER_ERROR, e.getCause());
+        }
+        if (current < 0)
+          checkedChunk = chunk;
+        //the chunks up to this one are passed, freeing their buffers for those ahead
+        while (submitted <= chunk + threads && !stopped && chunkStart(submitted) < maxDoc)
+          submit();
+        current = chunk;
+      }
+      hits++;
+      return havs[buffer][doc - chunkStart(chunk)];
+    }
+
+    /** The doc's point, after {@link #hav(int)}; only if calculated withPoints. */
+    int point(int doc) {
+      final int chunk = (doc - from) / chunkSize;
+      return points[chunk % futures.length][doc - chunkStart(chunk)];
+    }
+
+    /** Stops calculating ahead; chunks not yet started are cancelled. */
+    private void stop() {
+      stopped = true;
+      for (int chunk = Math.max(0, current + 1); chunk < submitted; chunk++) {
+        futures[chunk % futures.length].cancel(false);
+      }
+    }
+
+    /** Cancels the chunks not yet started. */
+    void cancel() {
+      stop();
+    }
+  }
+}
@@ -19,6 +19,7 @@ package solr2155.lucene.spatial.geohash;
 
 import org.apache.lucene.util.LuceneTestCase;
 import org.junit.Test;
+import solr2155.lucene.spatial.geometry.shape.Point2D;
 
 /**
  * Tests for {@link GeoHashUtils}
@@ -86,6 +87,21 @@ public class TestGeoHashUtils extends LuceneTestCase {
     assertEquals(decode[1], GeoHashUtils.decode(geoHash)[1], 0.000001d);
   }
 
+  /** Decoding into a reused array matches decoding into new objects exactly. */
+  @Test
+  public void testDecodeXYReused() {
+    GridNode.GridReferenceSystem refSys = new GridNode.GridReferenceSystem(12);
+    double[] xy = new double[4];
+    for (int i = 0; i < 100; i++) {
+      String geoHash = GeoHashUtils.encode(random.nextDouble() * 180 - 90, random.nextDouble() * 360 - 180);
+      refSys.decodeXY(geoHash, xy);
+      Point2D point = refSys.decodeXY(geoHash);
+      assertEquals(point.getX(), xy[0], 0);
+      assertEquals(point.getY(), xy[1], 0);
+      assertTrue(GeoHashUtils.decodeBoundary(geoHash).contains(xy[0], xy[1]));
+    }
+  }
+
   /** see the table at http://en.wikipedia.org/wiki/Geohash */
   @Test
   public void testHashLenToWidth() {
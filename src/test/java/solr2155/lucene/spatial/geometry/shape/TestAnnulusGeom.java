@@ -0,0 +1,102 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package solr2155.lucene.spatial.geometry.shape;
+
+import org.apache.lucene.spatial.DistanceUtils;
+import org.apache.lucene.util.LuceneTestCase;
+import org.junit.Test;
+
+/**
+ * Tests for {@link AnnulusGeom}
+ */
+public class TestAnnulusGeom extends LuceneTestCase {
+
+  private static final double RADIUS = DistanceUtils.EARTH_MEAN_RADIUS_KM;
+
+  private static double distance(double lat1, double lon1, double lat2, double lon2) {
+    return DistanceUtils.haversine(lat1 * DistanceUtils.DEGREES_TO_RADIANS, lon1 * DistanceUtils.DEGREES_TO_RADIANS,
+        lat2 * DistanceUtils.DEGREES_TO_RADIANS, lon2 * DistanceUtils.DEGREES_TO_RADIANS, RADIUS);
+  }
+
+  @Test
+  public void testContains() {
+    AnnulusGeom ring = new AnnulusGeom(10, 20, 10, 50, RADIUS);
+    assertFalse(ring.contains(20, 10));//the center
+    assertFalse(ring.contains(20, 10.05));//~6km
+    assertTrue(ring.contains(20, 10.2));//~22km
+    assertTrue(ring.contains(20.4, 10));//~44km
+    assertFalse(ring.contains(20, 10.5));//~56km
+  }
+
+  /** CONTAINS and OUTSIDE are consistent with the points of the rectangle, and cells in the hole are OUTSIDE. */
+  @Test
+  public void testIntersect() {
+    final int steps = 4;
+    for (int iter = 0; iter < 50; iter++) {
+      double lat = random.nextDouble() * 160 - 80, lon = random.nextDouble() * 340 - 170;
+      double maxDist = 10 + random.nextDouble() * 500;
+      double minDist = random.nextDouble() * maxDist;
+      AnnulusGeom ring = new AnnulusGeom(lat, lon, minDist, maxDist, RADIUS);
+      double degrees = maxDist / RADIUS * DistanceUtils.RADIANS_TO_DEGREES;
+
+      //a small rectangle around the center is within the hole
+      double hole = minDist / RADIUS * DistanceUtils.RADIANS_TO_DEGREES / 4;
+      if (hole > 1e-6)
+        assertEquals(IntersectCase.OUTSIDE, ring.intersect(new Rectangle(lon - hole / 2, lat - hole / 2, lon, lat)));
+
+      for (int i = 0; i < 50; i++) {
+        double size = random.nextDouble() * degrees;
+        double minX = lon + (random.nextDouble() * 2 - 1) * degrees * 2, minY = lat + (random.nextDouble() * 2 - 1) * degrees;
+        minY = Math.max(-90, Math.min(90 - size, minY));
+        Rectangle r = new Rectangle(minX, minY, minX + size, minY + size);
+        IntersectCase result = ring.intersect(r);
+        if (result == IntersectCase.INTERSECTS)
+          continue;
+        for (int sx = 0; sx <= steps; sx++) {
+          for (int sy = 0; sy <= steps; sy++) {
+            double x = minX + size * sx / steps, y = minY + size * sy / steps;
+            double dist = distance(lat, lon, y, x);
+            if (Math.abs(dist - minDist) <= 1e-6 * maxDist || Math.abs(dist - maxDist) <= 1e-6 * maxDist)
+              continue;
+            assertEquals(r + " " + result + " x=" + x + " y=" + y,
+                result == IntersectCase.CONTAINS, dist > minDist && dist <= maxDist);
+          }
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testContainsAll() {
+    AnnulusGeom ring = new AnnulusGeom(-30, 40, 100, 300, RADIUS);
+    double[] xs = new double[200], ys = new double[200];
+    int[] out = new int[200];
+    for (int i = 0; i < xs.length; i++) {
+      xs[i] = 40 + random.nextDouble() * 8 - 4;
+      ys[i] = -30 + random.nextDouble() * 8 - 4;
+    }
+    int count = ring.containsAll(xs, ys, xs.length, out);
+    int expected = 0;
+    for (int i = 0; i < xs.length; i++) {
+      if (ring.contains(xs[i], ys[i]))
+        assertEquals(i, out[expected++]);
+    }
+    assertEquals(expected, count);
+    assertTrue(count > 0 && count < xs.length);
+  }
+}
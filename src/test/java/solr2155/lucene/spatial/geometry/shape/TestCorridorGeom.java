@@ -0,0 +1,153 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package solr2155.lucene.spatial.geometry.shape;
+
+import org.apache.lucene.spatial.DistanceUtils;
+import org.apache.lucene.util.LuceneTestCase;
+import org.junit.Test;
+
+/**
+ * Tests for {@link CorridorGeom}
+ */
+public class TestCorridorGeom extends LuceneTestCase {
+
+  private static final double RADIUS = DistanceUtils.EARTH_MEAN_RADIUS_KM;
+
+  /** The distance from x,y to the line, approximated by points every 1/1000th of each segment along its arc. */
+  private static double sampledDistance(double[] line, double x, double y) {
+    double[] p = new double[3], a = new double[3], b = new double[3];
+    CorridorGeom.unitVector(x, y, p);
+    double min = Double.MAX_VALUE;
+    for (int i = 0; i + 3 < line.length; i += 2) {
+      CorridorGeom.unitVector(line[i], line[i + 1], a);
+      CorridorGeom.unitVector(line[i + 2], line[i + 3], b);
+      double omega = angle(a[0], a[1], a[2], b[0], b[1], b[2]);
+      for (int s = 0; s <= 1000; s++) {
+        double t = s / 1000.0;
+        double wa = omega == 0 ? 1 - t : Math.sin((1 - t) * omega) / Math.sin(omega);
+        double wb = omega == 0 ? t : Math.sin(t * omega) / Math.sin(omega);
+        min = Math.min(min, angle(p[0], p[1], p[2], wa * a[0] + wb * b[0], wa * a[1] + wb * b[1], wa * a[2] + wb * b[2]));
+      }
+    }
+    return min * RADIUS;
+  }
+
+  private static double angle(double px, double py, double pz, double qx, double qy, double qz) {
+    double cx = py * qz - pz * qy, cy = pz * qx - px * qz, cz = px * qy - py * qx;
+    return Math.atan2(Math.sqrt(cx * cx + cy * cy + cz * cz), px * qx + py * qy + pz * qz);
+  }
+
+  private double[] randomLine(int points, double lonSpread, double latSpread) {
+    double[] line = new double[points * 2];
+    double lon = random.nextDouble() * 300 - 150, lat = random.nextDouble() * 140 - 70;
+    for (int i = 0; i < points; i++) {
+      line[i * 2] = Math.max(-180, Math.min(180, lon + (random.nextDouble() * 2 - 1) * lonSpread));
+      line[i * 2 + 1] = Math.max(-89, Math.min(89, lat + (random.nextDouble() * 2 - 1) * latSpread));
+    }
+    return line;
+  }
+
+  @Test
+  public void testContains() {
+    for (int iter = 0; iter < 30; iter++) {
+      double[] line = randomLine(2 + random.nextInt(5), 5, 5);
+      double dist = Math.pow(10, random.nextDouble() * 3);//1 to 1000km
+      CorridorGeom corridor = new CorridorGeom(line, dist, RADIUS);
+      Rectangle bbox = corridor.boundingRectangle();
+      double degrees = dist / RADIUS * DistanceUtils.RADIANS_TO_DEGREES * 2 + 1;
+      for (int i = 0; i < 200; i++) {
+        int v = random.nextInt(line.length / 2);
+        double x = line[v * 2] + (random.nextDouble() * 2 - 1) * degrees;
+        double y = Math.max(-90, Math.min(90, line[v * 2 + 1] + (random.nextDouble() * 2 - 1) * degrees));
+        if (x < -180 || x > 180)
+          continue;
+        double pDist = sampledDistance(line, x, y);
+        if (Math.abs(pDist - dist) <= dist * 1e-3)
+          continue;//too close to call
+        String msg = "x=" + x + " y=" + y + " dist=" + dist + " pDist=" + pDist;
+        assertEquals(msg, pDist <= dist, corridor.contains(x, y));
+        if (pDist <= dist)
+          assertTrue(msg + " " + bbox, bbox.contains(x, y));
+      }
+    }
+  }
+
+  /** CONTAINS and OUTSIDE are consistent with the points of the rectangle. */
+  @Test
+  public void testIntersect() {
+    final int steps = 4;
+    for (int iter = 0; iter < 20; iter++) {
+      double[] line = randomLine(2 + random.nextInt(4), 3, 3);
+      double dist = 20 + random.nextDouble() * 200;
+      CorridorGeom corridor = new CorridorGeom(line, dist, RADIUS);
+      for (int i = 0; i < 100; i++) {
+        int v = random.nextInt(line.length / 2);
+        double size = random.nextDouble() * 2;
+        double minX = Math.max(-180, Math.min(180 - size, line[v * 2] + random.nextDouble() * 6 - 3));
+        double minY = Math.max(-90, Math.min(90 - size, line[v * 2 + 1] + random.nextDouble() * 6 - 3));
+        Rectangle r = new Rectangle(minX, minY, minX + size, minY + size);
+        IntersectCase result = corridor.intersect(r);
+        if (result == IntersectCase.INTERSECTS)
+          continue;
+        for (int sx = 0; sx <= steps; sx++) {
+          for (int sy = 0; sy <= steps; sy++) {
+            double x = minX + size * sx / steps, y = minY + size * sy / steps;
+            double pDist = sampledDistance(line, x, y);
+            if (Math.abs(pDist - dist) <= dist * 1e-2)
+              continue;
+            assertEquals(r + " " + result + " x=" + x + " y=" + y,
+                result == IntersectCase.CONTAINS, pDist <= dist);
+          }
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testRepeatedPoint() {
+    CorridorGeom corridor = new CorridorGeom(new double[]{10, 10, 10, 10, 11, 10}, 50, RADIUS);
+    assertTrue(corridor.contains(10.5, 10.2));
+    assertFalse(corridor.contains(10.5, 11));
+    assertFalse(corridor.contains(-170, -10));//opposite the repeated point
+  }
+
+  /** The middle vertex, or the midpoint of the middle segment. */
+  @Test
+  public void testCentroid() {
+    assertEquals(new Point2D(12, 11), new CorridorGeom(new double[]{10, 10, 12, 11, 15, 10}, 50, RADIUS).centroid());
+    Point2D mid = new CorridorGeom(new double[]{-10, 0, 10, 0}, 50, RADIUS).centroid();
+    assertEquals(0, mid.getX(), 1e-9);
+    assertEquals(0, mid.getY(), 1e-9);
+    mid = new CorridorGeom(new double[]{0, 0, 170, 0, -170, 0, 0, 10}, 50, RADIUS).centroid();//across the dateline
+    assertEquals(180, Math.abs(mid.getX()), 1e-9);
+    assertEquals(0, mid.getY(), 1e-9);
+  }
+
+  @Test
+  public void testEquals() {
+    double[] line = randomLine(2 + random.nextInt(4), 3, 3);
+    CorridorGeom corridor = new CorridorGeom(line, 50, RADIUS);
+    CorridorGeom same = new CorridorGeom(line.clone(), 50, RADIUS);
+    assertEquals(corridor, same);
+    assertEquals(corridor.hashCode(), same.hashCode());
+    assertFalse(corridor.equals(new CorridorGeom(line, 51, RADIUS)));
+    double[] moved = line.clone();
+    moved[moved.length - 1] += 1e-6;
+    assertFalse(corridor.equals(new CorridorGeom(moved, 50, RADIUS)));
+  }
+}
@@ -0,0 +1,80 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package solr2155.lucene.spatial.geometry.shape;
+
+import org.apache.lucene.spatial.DistanceUtils;
+import org.apache.lucene.util.LuceneTestCase;
+import org.junit.Test;
+import solr2155.lucene.spatial.geohash.GridNode;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Tests for {@link DatelineRectangle}
+ */
+public class TestDatelineRectangle extends LuceneTestCase {
+
+  @Test
+  public void testContainsAndIntersect() {
+    DatelineRectangle r = new DatelineRectangle(170, -10, -160, 10);
+    assertTrue(r.contains(175, 0));
+    assertTrue(r.contains(-165, 5));
+    assertTrue(r.contains(180, 10));
+    assertFalse(r.contains(0, 0));
+    assertFalse(r.contains(175, 11));
+    assertEquals(new Point2D(-175, 0), r.centroid());
+    assertEquals(30 * 20, r.area(), 1e-9);
+
+    assertEquals(IntersectCase.CONTAINS, r.intersect(new Rectangle(171, -1, 179, 1)));
+    assertEquals(IntersectCase.CONTAINS, r.intersect(new Rectangle(-170, -1, -161, 1)));
+    assertEquals(IntersectCase.INTERSECTS, r.intersect(new Rectangle(160, -1, 175, 1)));
+    assertEquals(IntersectCase.INTERSECTS, r.intersect(new Rectangle(-180, -90, 180, 90)));
+    assertEquals(IntersectCase.OUTSIDE, r.intersect(new Rectangle(-150, -1, 160, 1)));
+  }
+
+  /**
+   * The grid is covered on both sides of the dateline, by cells near the box (within the corners' 11.25 degree wide
+   * cells) rather than by the whole world.
+   */
+  @Test
+  public void testCover() {
+    GridNode.GridReferenceSystem refSys = new GridNode.GridReferenceSystem(12);
+    DatelineRectangle r = new DatelineRectangle(179, -1, -179, 1);
+    assertEquals(Arrays.asList(r.getWestRectangle(), r.getEastRectangle()), Arrays.asList(r.getCoverBoxes()));
+    List<GridNode> nodes = refSys.getSubNodes(r);
+    String last = "";
+    boolean west = false, east = false;
+    for (GridNode node : nodes) {
+      assertTrue(node.getTermVal().compareTo(last) > 0);//sorted and distinct
+      last = node.getTermVal();
+      Rectangle cell = node.getRectangle();
+      assertTrue(cell.toString(), cell.getMinX() >= 165 || cell.getMaxX() <= -165);
+      west |= r.getWestRectangle().intersect(cell) != IntersectCase.OUTSIDE;
+      east |= r.getEastRectangle().intersect(cell) != IntersectCase.OUTSIDE;
+    }
+    assertTrue(west && east);
+
+    //likewise a circle around a point on the dateline
+    PointDistanceGeom circle = new PointDistanceGeom(0, 180, 100, DistanceUtils.EARTH_MEAN_RADIUS_KM);
+    for (GridNode node : refSys.getSubNodes(circle)) {
+      Rectangle cell = node.getRectangle();
+      assertTrue(cell.toString(), cell.getMinX() >= 165 || cell.getMaxX() <= -165);
+    }
+  }
+}
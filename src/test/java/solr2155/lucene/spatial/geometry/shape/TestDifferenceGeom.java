@@ -0,0 +1,76 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package solr2155.lucene.spatial.geometry.shape;
+
+import org.apache.lucene.util.LuceneTestCase;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Tests for {@link DifferenceGeom}
+ */
+public class TestDifferenceGeom extends LuceneTestCase {
+
+  @Test
+  public void testConsistent() {
+    for (int iter = 0; iter < 50; iter++) {
+      final double x = random.nextDouble() * 300 - 150, y = random.nextDouble() * 120 - 60;
+      final Geometry2D base = TestIntersectionGeom.randomShape(x, y);
+      List<Geometry2D> zones = new ArrayList<Geometry2D>();
+      for (int i = 1 + random.nextInt(3); i > 0; i--) {
+        zones.add(TestIntersectionGeom.randomShape(x, y));
+      }
+      final Geometry2D excluded = new MultiGeom(zones);
+      DifferenceGeom diff = new DifferenceGeom(base, excluded);
+      //the difference is the intersection with the complement of the excluded zones
+      Geometry2D notExcluded = new Rectangle(-180, -90, 180, 90) {
+        @Override
+        public boolean contains(double x, double y) {
+          return !excluded.contains(x, y);
+        }
+      };
+      List<Geometry2D> shapes = new ArrayList<Geometry2D>(zones);
+      shapes.add(base);
+      TestIntersectionGeom.checkConsistent(diff, Arrays.asList(base, notExcluded), shapes, true, x, y);
+    }
+  }
+
+  @Test
+  public void testExclusionZone() {
+    DifferenceGeom diff = new DifferenceGeom(new Rectangle(0, 0, 20, 20), new Rectangle(0, 0, 10, 10));
+    assertTrue(diff.contains(15, 5));
+    assertFalse(diff.contains(5, 5));
+    assertEquals(IntersectCase.OUTSIDE, diff.intersect(new Rectangle(2, 2, 8, 8)));
+    assertEquals(IntersectCase.CONTAINS, diff.intersect(new Rectangle(12, 2, 18, 8)));
+    assertEquals(IntersectCase.INTERSECTS, diff.intersect(new Rectangle(8, 2, 12, 8)));
+    assertEquals(IntersectCase.OUTSIDE, diff.intersect(new Rectangle(30, 2, 40, 8)));
+    assertEquals(new Point2D(10, 10), diff.centroid());
+  }
+
+  @Test
+  public void testEquals() {
+    DifferenceGeom diff = new DifferenceGeom(new Rectangle(0, 0, 20, 20), new Rectangle(0, 0, 10, 10));
+    DifferenceGeom same = new DifferenceGeom(new Rectangle(0, 0, 20, 20), new Rectangle(0, 0, 10, 10));
+    assertEquals(diff, same);
+    assertEquals(diff.hashCode(), same.hashCode());
+    assertFalse(diff.equals(new DifferenceGeom(new Rectangle(0, 0, 10, 10), new Rectangle(0, 0, 20, 20))));
+  }
+}
@@ -0,0 +1,150 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package solr2155.lucene.spatial.geometry.shape;
+
+import org.apache.lucene.spatial.DistanceUtils;
+import org.apache.lucene.util.LuceneTestCase;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Tests for {@link IntersectionGeom}
+ */
+public class TestIntersectionGeom extends LuceneTestCase {
+
+  static Geometry2D randomShape(double x, double y) {
+    if (random.nextBoolean())
+      return new PointDistanceGeom(y + random.nextDouble() * 4 - 2, x + random.nextDouble() * 4 - 2,
+          50 + random.nextDouble() * 400, DistanceUtils.EARTH_MEAN_RADIUS_KM);
+    double minX = x + random.nextDouble() * 4 - 4, minY = y + random.nextDouble() * 4 - 4;
+    return new Rectangle(minX, minY, minX + random.nextDouble() * 6, minY + random.nextDouble() * 6);
+  }
+
+  /**
+   * Whether the point is within a couple of km of a circle's edge.  A circle CONTAINS a rectangle whose corners it
+   * contains, but a rectangle's edge along a parallel bulges from the great circles between its corners, by up to a
+   * km or so for these sizes.
+   */
+  private static boolean nearEdge(List<Geometry2D> shapes, double x, double y) {
+    for (Geometry2D shape : shapes) {
+      if (shape instanceof PointDistanceGeom) {
+        PointDistanceGeom circle = (PointDistanceGeom) shape;
+        if (Math.abs(circle.calcDistanceToPoint(x, y) - circle.getDistance()) <= 2)
+          return true;
+      }
+    }
+    return false;
+  }
+
+  static void checkConsistent(Geometry2D shape, List<Geometry2D> members, boolean all, double x, double y) {
+    checkConsistent(shape, members, members, all, x, y);
+  }
+
+  /**
+   * CONTAINS and OUTSIDE are consistent with the points of the rectangle, but for those near the edge of one of the
+   * shapes, as are contains and containsAll with the members.
+   */
+  static void checkConsistent(Geometry2D shape, List<Geometry2D> members, List<Geometry2D> shapes, boolean all,
+                              double x, double y) {
+    final int steps = 4;
+    double[] xs = new double[(steps + 1) * (steps + 1)], ys = new double[xs.length];
+    int[] out = new int[xs.length];
+    for (int i = 0; i < 50; i++) {
+      double size = random.nextDouble() * 3;
+      double minX = x + random.nextDouble() * 8 - 5, minY = y + random.nextDouble() * 8 - 5;
+      Rectangle r = new Rectangle(minX, minY, minX + size, minY + size);
+      IntersectCase result = shape.intersect(r);
+      int n = 0;
+      for (int sx = 0; sx <= steps; sx++) {
+        for (int sy = 0; sy <= steps; sy++, n++) {
+          xs[n] = minX + size * sx / steps;
+          ys[n] = minY + size * sy / steps;
+          boolean in = all;
+          for (Geometry2D member : members) {
+            if (member.contains(xs[n], ys[n]) != all) {
+              in = !all;
+              break;
+            }
+          }
+          assertEquals(in, shape.contains(xs[n], ys[n]));
+          if (result != IntersectCase.INTERSECTS && !nearEdge(shapes, xs[n], ys[n]))
+            assertEquals(r + " " + result, result == IntersectCase.CONTAINS, in);
+        }
+      }
+      int count = shape.containsAll(xs, ys, n, out);
+      int expected = 0;
+      for (int k = 0; k < n; k++) {
+        if (shape.contains(xs[k], ys[k]))
+          assertEquals(k, out[expected++]);
+      }
+      assertEquals(expected, count);
+    }
+  }
+
+  @Test
+  public void testConsistent() {
+    for (int iter = 0; iter < 50; iter++) {
+      double x = random.nextDouble() * 300 - 150, y = random.nextDouble() * 120 - 60;
+      List<Geometry2D> members = new ArrayList<Geometry2D>();
+      for (int i = 1 + random.nextInt(3); i > 0; i--) {
+        members.add(randomShape(x, y));
+      }
+      checkConsistent(new IntersectionGeom(members), members, true, x, y);
+    }
+  }
+
+  @Test
+  public void testDisjoint() {
+    IntersectionGeom empty = new IntersectionGeom(Arrays.<Geometry2D>asList(
+        new Rectangle(0, 0, 10, 10), new Rectangle(20, 0, 30, 10)));
+    assertFalse(empty.contains(5, 5));
+    assertEquals(IntersectCase.OUTSIDE, empty.intersect(new Rectangle(-180, -90, 180, 90)));
+
+    IntersectionGeom both = new IntersectionGeom(Arrays.<Geometry2D>asList(
+        new Rectangle(0, 0, 10, 10), new Rectangle(5, 5, 15, 15)));
+    assertEquals(new Rectangle(5, 5, 10, 10), both.boundingRectangle());
+    assertEquals(new Point2D(7.5, 7.5), both.centroid());
+    assertEquals(IntersectCase.CONTAINS, both.intersect(new Rectangle(6, 6, 9, 9)));
+    assertEquals(IntersectCase.INTERSECTS, both.intersect(new Rectangle(4, 4, 9, 9)));
+  }
+
+  /** The overlap of the members' cover boxes; a member crossing the dateline narrows the other's. */
+  @Test
+  public void testCoverBoxes() {
+    IntersectionGeom both = new IntersectionGeom(Arrays.<Geometry2D>asList(
+        new DatelineRectangle(170, 0, -170, 10), new Rectangle(160, 5, 175, 20)));
+    assertEquals(Arrays.asList(new Rectangle(170, 5, 175, 10)), Arrays.asList(both.getCoverBoxes()));
+    IntersectionGeom empty = new IntersectionGeom(Arrays.<Geometry2D>asList(
+        new DatelineRectangle(170, 0, -170, 10), new Rectangle(160, 20, 175, 30)));
+    assertEquals(1, empty.getCoverBoxes().length);
+  }
+
+  @Test
+  public void testEquals() {
+    Geometry2D a = new Rectangle(0, 0, 10, 10), b = new PointDistanceGeom(5, 5, 100, DistanceUtils.EARTH_MEAN_RADIUS_KM);
+    IntersectionGeom both = new IntersectionGeom(Arrays.asList(a, b));
+    IntersectionGeom reordered = new IntersectionGeom(Arrays.<Geometry2D>asList(
+        new PointDistanceGeom(5, 5, 100, DistanceUtils.EARTH_MEAN_RADIUS_KM), new Rectangle(0, 0, 10, 10)));
+    assertEquals(both, reordered);
+    assertEquals(both.hashCode(), reordered.hashCode());
+    assertFalse(both.equals(new IntersectionGeom(Arrays.asList(a))));
+  }
+}
@@ -0,0 +1,151 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package solr2155.lucene.spatial.geometry.shape;
+
+import org.apache.lucene.spatial.DistanceUtils;
+import org.apache.lucene.util.LuceneTestCase;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Tests for {@link MultiGeom}
+ */
+public class TestMultiGeom extends LuceneTestCase {
+
+  /** The tree finds what a scan of every member finds. */
+  @Test
+  public void testAgainstScan() {
+    for (int iter = 0; iter < 10; iter++) {
+      List<Geometry2D> circles = new ArrayList<Geometry2D>();
+      int n = 1 + random.nextInt(400);
+      for (int i = 0; i < n; i++) {
+        circles.add(new PointDistanceGeom(random.nextDouble() * 100 - 50, random.nextDouble() * 200 - 100,
+            random.nextDouble() * 500, DistanceUtils.EARTH_MEAN_RADIUS_KM));
+      }
+      MultiGeom multi = new MultiGeom(circles);
+      assertEquals(n, multi.size());
+      for (int i = 0; i < 500; i++) {
+        Point2D p = new Point2D(random.nextDouble() * 220 - 110, random.nextDouble() * 120 - 60);
+        boolean expected = false;
+        for (Geometry2D circle : circles) {
+          expected |= circle.contains(p);
+        }
+        assertEquals(p.toString(), expected, multi.contains(p));
+
+        double size = random.nextDouble() * 5;
+        Rectangle r = new Rectangle(p.getX(), p.getY(), p.getX() + size, p.getY() + size);
+        IntersectCase expectedCase = IntersectCase.OUTSIDE;
+        for (Geometry2D circle : circles) {
+          IntersectCase sect = circle.intersect(r);
+          if (sect == IntersectCase.CONTAINS) {
+            expectedCase = sect;
+            break;
+          }
+          if (sect == IntersectCase.INTERSECTS)
+            expectedCase = sect;
+        }
+        assertEquals(r.toString(), expectedCase, multi.intersect(r));
+      }
+    }
+  }
+
+  /** containsAll agrees with contains, for the MultiGeom and for its circles and rectangles. */
+  @Test
+  public void testContainsAll() {
+    List<Geometry2D> members = new ArrayList<Geometry2D>();
+    for (int i = 0; i < 100; i++) {
+      double x = random.nextDouble() * 200 - 100, y = random.nextDouble() * 100 - 50;
+      if (random.nextBoolean())
+        members.add(new PointDistanceGeom(y, x, random.nextDouble() * 300, DistanceUtils.EARTH_MEAN_RADIUS_KM));
+      else
+        members.add(new Rectangle(x, y, x + random.nextDouble() * 3, y + random.nextDouble() * 3));
+    }
+    List<Geometry2D> shapes = new ArrayList<Geometry2D>(members.subList(0, 10));
+    shapes.add(new MultiGeom(members));
+    double[] xs = new double[64], ys = new double[64];
+    int[] out = new int[64];
+    for (int iter = 0; iter < 200; iter++) {
+      //a block of points near each other, as the leaves of a grid cell are, or else anywhere
+      double spread = random.nextBoolean() ? 1 : 100;
+      double x = random.nextDouble() * 200 - 100, y = random.nextDouble() * 100 - 50;
+      int n = random.nextInt(xs.length + 1);
+      for (int i = 0; i < n; i++) {
+        xs[i] = x + (random.nextDouble() * 2 - 1) * spread;
+        ys[i] = y + (random.nextDouble() * 2 - 1) * spread / 2;
+      }
+      for (Geometry2D shape : shapes) {
+        int count = shape.containsAll(xs, ys, n, out);
+        int expected = 0;
+        for (int i = 0; i < n; i++) {
+          if (shape.contains(xs[i], ys[i]))
+            assertEquals(shape.toString(), i, out[expected++]);
+        }
+        assertEquals(shape.toString(), expected, count);
+      }
+    }
+  }
+
+  @Test
+  public void testBoundingRectangle() {
+    MultiGeom multi = new MultiGeom(Arrays.<Geometry2D>asList(
+        new Rectangle(-20, -30, -10, -25), new Rectangle(-15, -40, -12, -35)));
+    assertEquals(new Rectangle(-20, -40, -10, -25), multi.boundingRectangle());
+    assertFalse(multi.contains(new Point2D(0, 0)));
+    assertEquals(IntersectCase.OUTSIDE, multi.intersect(new Rectangle(-1, -1, 1, 1)));
+    assertEquals(IntersectCase.CONTAINS, multi.intersect(new Rectangle(-14, -39, -13, -36)));
+  }
+
+  /** A member crossing the dateline is covered from either side of it, not from all longitudes. */
+  @Test
+  public void testCoverBoxes() {
+    DatelineRectangle dateline = new DatelineRectangle(170, 0, -170, 10);
+    Rectangle box = new Rectangle(160, 20, 165, 25);
+    MultiGeom multi = new MultiGeom(Arrays.<Geometry2D>asList(dateline, box));
+    List<Rectangle> expected = new ArrayList<Rectangle>(Arrays.asList(dateline.getCoverBoxes()));
+    expected.add(box);
+    List<Rectangle> covers = Arrays.asList(multi.getCoverBoxes());
+    assertEquals(expected.size(), covers.size());
+    assertTrue(covers.containsAll(expected));
+
+    //many are merged on either side of the prime meridian
+    List<Geometry2D> members = new ArrayList<Geometry2D>();
+    for (int i = 0; i < 20; i++) {
+      members.add(new Rectangle(100 + i, 0, 101 + i, 1));
+      members.add(new Rectangle(-120 - i, 0, -119 - i, 1));
+    }
+    assertEquals(Arrays.asList(new Rectangle(-139, 0, -119, 1), new Rectangle(100, 0, 120, 1)),
+        Arrays.asList(new MultiGeom(members).getCoverBoxes()));
+  }
+
+  @Test
+  public void testEquals() {
+    Geometry2D a = new Rectangle(-20, -30, -10, -25);
+    Geometry2D b = new PointDistanceGeom(10, 20, 100, DistanceUtils.EARTH_MEAN_RADIUS_KM);
+    MultiGeom multi = new MultiGeom(Arrays.asList(a, b));
+    MultiGeom reordered = new MultiGeom(Arrays.<Geometry2D>asList(
+        new PointDistanceGeom(10, 20, 100, DistanceUtils.EARTH_MEAN_RADIUS_KM), new Rectangle(-20, -30, -10, -25)));
+    assertEquals(multi, reordered);
+    assertEquals(multi.hashCode(), reordered.hashCode());
+    assertFalse(multi.equals(new MultiGeom(Arrays.asList(a))));
+    assertFalse(multi.equals(new MultiGeom(Arrays.<Geometry2D>asList(a,
+        new PointDistanceGeom(10, 20, 101, DistanceUtils.EARTH_MEAN_RADIUS_KM)))));
+  }
+}
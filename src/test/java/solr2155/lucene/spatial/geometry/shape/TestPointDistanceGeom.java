@@ -0,0 +1,140 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package solr2155.lucene.spatial.geometry.shape;
+
+import org.apache.lucene.spatial.DistanceUtils;
+import org.apache.lucene.util.LuceneTestCase;
+import org.junit.Test;
+
+/**
+ * Tests for {@link PointDistanceGeom}
+ */
+public class TestPointDistanceGeom extends LuceneTestCase {
+
+  private static double angle(double lat1, double lon1, double lat2, double lon2) {
+    return DistanceUtils.haversine(lat1 * DistanceUtils.DEGREES_TO_RADIANS, lon1 * DistanceUtils.DEGREES_TO_RADIANS,
+        lat2 * DistanceUtils.DEGREES_TO_RADIANS, lon2 * DistanceUtils.DEGREES_TO_RADIANS, 1);
+  }
+
+  /** The angle to the rectangle is the least angle to any point of it, approximated by sampling. */
+  @Test
+  public void testAngleToRectangle() {
+    final int steps = 100;
+    for (int iter = 0; iter < 200; iter++) {
+      double lat = random.nextDouble() * 180 - 90;
+      double lon = random.nextDouble() * 360 - 180;
+      double minX = random.nextDouble() * 360 - 180;
+      double maxX = minX + random.nextDouble() * (180 - minX);
+      double minY = random.nextDouble() * 180 - 90;
+      double maxY = minY + random.nextDouble() * (90 - minY);
+      Rectangle r = new Rectangle(minX, minY, maxX, maxY);
+
+      double sampled = Double.MAX_VALUE;
+      for (int i = 0; i <= steps; i++) {
+        for (int j = 0; j <= steps; j++) {
+          sampled = Math.min(sampled,
+              angle(lat, lon, minY + (maxY - minY) * i / steps, minX + (maxX - minX) * j / steps));
+        }
+      }
+      double exact = PointDistanceGeom.angleToRectangle(lat, lon, r);
+      //a sample step is longest where the rectangle is nearest the equator
+      double widestY = Math.max(minY, Math.min(maxY - (maxY - minY) / steps, 0));
+      double tolerance = angle(widestY, minX, widestY + (maxY - minY) / steps, minX + (maxX - minX) / steps);
+      String msg = "pt=" + lat + "," + lon + " " + r;
+      assertTrue(msg + " exact=" + exact + " sampled=" + sampled, exact <= sampled + 1e-12);
+      assertTrue(msg + " exact=" + exact + " sampled=" + sampled, exact >= sampled - tolerance);
+    }
+  }
+
+  /** The inscribed box and latitude shortcuts agree with the haversine, apart from rounding at the edge. */
+  @Test
+  public void testContains() {
+    final double radius = DistanceUtils.EARTH_MEAN_RADIUS_KM;
+    for (int iter = 0; iter < 100; iter++) {
+      double lat = random.nextBoolean() ? random.nextDouble() * 180 - 90 : (random.nextBoolean() ? 89.9 : -89.9);
+      double lon = random.nextDouble() * 360 - 180;
+      double dist = Math.pow(10, random.nextDouble() * 8 - 3);//1m to 100,000km
+      PointDistanceGeom geom = new PointDistanceGeom(lat, lon, dist, radius);
+      double degrees = Math.min(180, dist / radius * DistanceUtils.RADIANS_TO_DEGREES * 2);
+      for (int i = 0; i < 100; i++) {
+        double pLat = Math.max(-90, Math.min(90, lat + (random.nextDouble() * 2 - 1) * degrees));
+        double pLon = lon + (random.nextDouble() * 2 - 1) * degrees;
+        if (pLon > 180) pLon -= 360;
+        if (pLon < -180) pLon += 360;
+        double pDist = angle(lat, lon, pLat, pLon) * radius;
+        if (Math.abs(pDist - dist) <= dist * 1e-6)
+          continue;//too close to call
+        assertEquals("pt=" + lat + "," + lon + " d=" + dist + " p=" + pLat + "," + pLon,
+            pDist <= dist, geom.contains(new Point2D(pLon, pLat)));
+      }
+    }
+  }
+
+  /** The distance the filter has always compared, by DistanceUtils.haversine of Math.toRadians. */
+  private static double baselineDistance(double lat1, double lon1, double lat2, double lon2, double radius) {
+    return DistanceUtils.haversine(Math.toRadians(lat1), Math.toRadians(lon1),
+        Math.toRadians(lat2), Math.toRadians(lon2), radius);
+  }
+
+  /**
+   * Points are decided exactly as by the baseline distance, even a few ulps from a pole where the degrees' rounding
+   * dwarfs the distance; from SpatialFilterTest.randomTest with
+   * pt=89.99999999999994,-179.99999999999994&amp;d=4.201505083845092E-12.
+   */
+  @Test
+  public void testContainsNearPole() {
+    final double radius = DistanceUtils.EARTH_MEAN_RADIUS_KM;
+    final double ulp = Math.ulp(89.9);
+    assertContainsAsBaseline(89.99999999999994, -179.99999999999994, 4.201505083845092E-12, radius,
+        89.99999999999997, 180);
+    assertContainsAsBaseline(89.99999999999994, -179.99999999999994, 4.201505083845092E-12, radius,
+        89.99999999999997, -180);
+    for (int iter = 0; iter < 200; iter++) {
+      final double sign = random.nextBoolean() ? 1 : -1;
+      final double lat = sign * (90 - ulp * random.nextInt(8));
+      final double lon = random.nextBoolean() ? -180 + ulp * 2 * random.nextInt(8) : 180 - ulp * 2 * random.nextInt(8);
+      final double dist = Math.pow(10, random.nextDouble() * 4 - 14);//1e-14 to 1e-10 km
+      for (int i = 0; i < 20; i++) {
+        final double pLat = sign * (90 - ulp * random.nextInt(8));
+        final double pLon = random.nextBoolean() ? -180 + ulp * 2 * random.nextInt(8) : 180 - ulp * 2 * random.nextInt(8);
+        assertContainsAsBaseline(lat, lon, dist, radius, pLat, pLon);
+      }
+    }
+  }
+
+  private static void assertContainsAsBaseline(double lat, double lon, double dist, double radius,
+                                               double pLat, double pLon) {
+    PointDistanceGeom geom = new PointDistanceGeom(lat, lon, dist, radius);
+    final double expected = baselineDistance(lat, lon, pLat, pLon, radius);
+    final String msg = "pt=" + lat + "," + lon + " d=" + dist + " p=" + pLat + "," + pLon + " dist=" + expected;
+    assertEquals(msg, expected, geom.calcDistanceToPoint(pLon, pLat), 0.0);
+    assertEquals(msg, expected <= dist, geom.contains(pLon, pLat));
+    assertEquals(msg, expected <= dist ? 1 : 0,
+        geom.containsAll(new double[]{pLon}, new double[]{pLat}, 1, new int[1]));
+  }
+
+  @Test
+  public void testIntersect() {
+    PointDistanceGeom geom = new PointDistanceGeom(0, 0, 1000, DistanceUtils.EARTH_MEAN_RADIUS_KM);
+    //within the bounding box's corner, but beyond the circle
+    assertEquals(IntersectCase.OUTSIDE, geom.intersect(new Rectangle(7, 7, 8.9, 8.9)));
+    assertEquals(IntersectCase.INTERSECTS, geom.intersect(new Rectangle(5, 5, 8.9, 8.9)));
+    assertEquals(IntersectCase.CONTAINS, geom.intersect(new Rectangle(-1, -1, 1, 1)));
+    assertEquals(IntersectCase.OUTSIDE, geom.intersect(new Rectangle(20, 20, 30, 30)));
+  }
+}
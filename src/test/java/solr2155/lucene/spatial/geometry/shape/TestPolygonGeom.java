@@ -0,0 +1,144 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package solr2155.lucene.spatial.geometry.shape;
+
+import org.apache.lucene.util.LuceneTestCase;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+/**
+ * Tests for {@link PolygonGeom}
+ */
+public class TestPolygonGeom extends LuceneTestCase {
+
+  /** A random star-shaped ring around x,y, so that it doesn't cross itself. */
+  private double[] randomRing(double x, double y, double maxRadius, int n) {
+    double[] ring = new double[n * 2];
+    for (int i = 0; i < n; i++) {
+      double angle = 2 * Math.PI * i / n;
+      double radius = maxRadius * (0.2 + 0.8 * random.nextDouble());
+      ring[i * 2] = x + radius * Math.cos(angle);
+      ring[i * 2 + 1] = y + radius * Math.sin(angle);
+    }
+    return ring;
+  }
+
+  /** The plain even-odd ray cast, through every edge. */
+  private static boolean naiveContains(double x, double y, double[]... rings) {
+    boolean inside = false;
+    for (double[] ring : rings) {
+      int n = ring.length / 2;
+      for (int i = 0, j = n - 1; i < n; j = i++) {
+        double xi = ring[i * 2], yi = ring[i * 2 + 1], xj = ring[j * 2], yj = ring[j * 2 + 1];
+        if ((yi > y) != (yj > y) && x < (xj - xi) * (y - yi) / (yj - yi) + xi)
+          inside = !inside;
+      }
+    }
+    return inside;
+  }
+
+  @Test
+  public void testContains() {
+    for (int iter = 0; iter < 20; iter++) {
+      double[] shell = randomRing(10, 20, 30, 3 + random.nextInt(500));
+      double[] hole = randomRing(10, 20, 5, 3 + random.nextInt(50));
+      PolygonGeom polygon = new PolygonGeom(shell, hole);
+      for (int i = 0; i < 1000; i++) {
+        double x = 10 + random.nextDouble() * 70 - 35;
+        double y = 20 + random.nextDouble() * 70 - 35;
+        assertEquals("x=" + x + " y=" + y, naiveContains(x, y, shell, hole), polygon.contains(new Point2D(x, y)));
+      }
+    }
+  }
+
+  /** CONTAINS and OUTSIDE are consistent with the points of the rectangle. */
+  @Test
+  public void testIntersect() {
+    final int steps = 10;
+    for (int iter = 0; iter < 20; iter++) {
+      double[] shell = randomRing(0, 0, 30, 3 + random.nextInt(200));
+      PolygonGeom polygon = new PolygonGeom(shell);
+      for (int i = 0; i < 200; i++) {
+        double minX = random.nextDouble() * 80 - 40;
+        double minY = random.nextDouble() * 80 - 40;
+        double size = random.nextDouble() * 10;
+        Rectangle r = new Rectangle(minX, minY, minX + size, minY + size);
+        IntersectCase result = polygon.intersect(r);
+        if (result == IntersectCase.INTERSECTS)
+          continue;
+        for (int sx = 0; sx <= steps; sx++) {
+          for (int sy = 0; sy <= steps; sy++) {
+            double x = minX + size * sx / steps, y = minY + size * sy / steps;
+            assertEquals(r + " " + result + " x=" + x + " y=" + y,
+                result == IntersectCase.CONTAINS, naiveContains(x, y, shell));
+          }
+        }
+      }
+    }
+    PolygonGeom square = new PolygonGeom(new double[]{0, 0, 10, 0, 10, 10, 0, 10, 0, 0});
+    assertEquals(4, square.getNumEdges());
+    assertEquals(IntersectCase.CONTAINS, square.intersect(new Rectangle(1, 1, 2, 2)));
+    assertEquals(IntersectCase.INTERSECTS, square.intersect(new Rectangle(-1, -1, 11, 11)));
+    assertEquals(IntersectCase.INTERSECTS, square.intersect(new Rectangle(9, 9, 12, 12)));
+    assertEquals(IntersectCase.OUTSIDE, square.intersect(new Rectangle(11, 0, 12, 2)));
+    assertEquals(100, square.area(), 1e-9);
+    assertEquals(5, square.centroid().getX(), 1e-9);
+    assertEquals(5, square.centroid().getY(), 1e-9);
+  }
+
+  /** A comb of teeth spanning all the polygon's height would list each edge in most bands, were they not capped. */
+  @Test
+  public void testBandEntriesCapped() {
+    final int teeth = 1000 + random.nextInt(1000);
+    double[] comb = new double[teeth * 4 + 4];
+    for (int i = 0; i < teeth; i++) {
+      comb[i * 4] = i * 0.1;
+      comb[i * 4 + 1] = -80;
+      comb[i * 4 + 2] = i * 0.1 + 0.05;
+      comb[i * 4 + 3] = 80;
+    }
+    comb[teeth * 4] = teeth * 0.1;
+    comb[teeth * 4 + 1] = -85;
+    comb[teeth * 4 + 2] = 0;
+    comb[teeth * 4 + 3] = -85;
+    PolygonGeom polygon = new PolygonGeom(comb);
+    assertTrue(polygon.getNumBandEntries() <= (long) polygon.getNumEdges() * PolygonGeom.MAX_BAND_ENTRIES_PER_EDGE);
+    for (int i = 0; i < 1000; i++) {
+      double x = random.nextDouble() * teeth * 0.1, y = random.nextDouble() * 170 - 85;
+      assertEquals("x=" + x + " y=" + y, naiveContains(x, y, comb), polygon.contains(x, y));
+    }
+  }
+
+  @Test
+  public void testEquals() {
+    double[] shell = randomRing(10, 20, 30, 3 + random.nextInt(50));
+    double[] hole = randomRing(10, 20, 5, 3 + random.nextInt(10));
+    PolygonGeom polygon = new PolygonGeom(shell, hole);
+    double[] closed = Arrays.copyOf(shell, shell.length + 2);
+    closed[shell.length] = shell[0];
+    closed[shell.length + 1] = shell[1];
+    PolygonGeom same = new PolygonGeom(closed, hole.clone());
+    assertEquals(polygon, same);
+    assertEquals(polygon.hashCode(), same.hashCode());
+    assertFalse(polygon.equals(new PolygonGeom(shell)));
+    double[] moved = shell.clone();
+    moved[0] += 1e-6;
+    assertFalse(polygon.equals(new PolygonGeom(moved, hole)));
+  }
+}
@@ -0,0 +1,97 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package solr2155.lucene.spatial.geometry.shape;
+
+import org.apache.lucene.spatial.DistanceUtils;
+import org.apache.lucene.util.LuceneTestCase;
+import org.junit.Test;
+
+/**
+ * Tests for {@link WktShapeParser}
+ */
+public class TestWktShapeParser extends LuceneTestCase {
+
+  private static final double RADIUS = DistanceUtils.EARTH_MEAN_RADIUS_KM;
+
+  private static Geometry2D parse(String wkt, double bufferKm) {
+    return WktShapeParser.parse(wkt, bufferKm, RADIUS);
+  }
+
+  @Test
+  public void testPoint() {
+    Geometry2D point = parse(" point ( 10 20 ) ", 0);
+    assertEquals(new Rectangle(10, 20, 10, 20), point);
+    Geometry2D circle = parse("POINT(10 20)", 100);
+    assertTrue(circle instanceof PointDistanceGeom);
+    assertTrue(circle.contains(new Point2D(10.5, 20)));
+    assertFalse(circle.contains(new Point2D(11, 20)));
+  }
+
+  @Test
+  public void testPolygon() {
+    Geometry2D polygon = parse("POLYGON ((0 0, 10 0, 10 10, 0 10, 0 0), (4 4, 6 4, 6 6, 4 6, 4 4))", 0);
+    assertEquals(96, polygon.area(), 1e-9);
+    assertTrue(polygon.contains(new Point2D(1, 1)));
+    assertFalse(polygon.contains(new Point2D(5, 5)));//in the hole
+    assertFalse(polygon.contains(new Point2D(11, 5)));
+
+    Geometry2D multi = parse("MULTIPOLYGON (((0 0, 1 0, 1 1, 0 0)), ((20 20, 30 20, 30 30, 20 20)))", 0);
+    assertTrue(multi.contains(new Point2D(0.9, 0.1)));
+    assertTrue(multi.contains(new Point2D(29, 21)));
+    assertFalse(multi.contains(new Point2D(10, 10)));
+  }
+
+  @Test
+  public void testLineString() {
+    final double bufferKm = 10;
+    Geometry2D corridor = parse("LINESTRING (0 0, 1 0, 1 1.5)", bufferKm);
+    final double bufferDegrees = bufferKm / RADIUS * DistanceUtils.RADIANS_TO_DEGREES;
+    for (int i = 0; i < 100; i++) {
+      //points along the line within 99% of the buffer of it, and beyond it
+      double along = random.nextDouble() * 2.5;
+      double x = along < 1 ? along : 1, y = along < 1 ? 0 : along - 1;
+      double offset = bufferDegrees * 0.99 * (random.nextDouble() * 2 - 1);
+      Point2D near = along < 1 ? new Point2D(x, y + offset) : new Point2D(x + offset, y);
+      assertTrue(near.toString(), corridor.contains(near));
+      Point2D far = along < 1 ? new Point2D(x, -bufferDegrees * 1.01) : new Point2D(1 + bufferDegrees * 1.01, y);
+      assertFalse(far.toString(), corridor.contains(far));
+    }
+  }
+
+  @Test
+  public void testErrors() {
+    String[] bad = {"", "CIRCLE (1 2)", "POINT (1)", "POINT (1 2", "POINT (1 2) x", "POLYGON ((0 0, 1 1))",
+        "LINESTRING (0 0, 1 1)", "POINT (a b)"};
+    for (String wkt : bad) {
+      try {
+        parse(wkt, 0);
+        fail("Expected failure of " + wkt);
+      } catch (IllegalArgumentException e) {
+        //expected
+      }
+    }
+    for (String wkt : new String[]{"POLYGON ((0 0, 1 0, 1 1))", "MULTIPOLYGON (((0 0, 1 0, 1 1)))"}) {
+      try {
+        parse(wkt, 10);
+        fail("Expected failure of a buffer around " + wkt);
+      } catch (IllegalArgumentException e) {
+        //expected
+      }
+    }
+  }
+}
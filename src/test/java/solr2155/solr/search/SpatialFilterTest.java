@@ -24,12 +24,14 @@ import solr2155.lucene.spatial.geometry.shape.Point2D;
 import solr2155.lucene.spatial.geometry.shape.Rectangle;
 import org.apache.solr.SolrTestCaseJ4;
 import org.apache.solr.common.SolrInputDocument;
+import org.apache.solr.search.QParser;
 import org.junit.BeforeClass;
 import org.junit.Test;
 
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Comparator;
 import java.util.List;
 
 
@@ -102,6 +104,164 @@ public class SpatialFilterTest extends SolrTestCaseJ4 {
     checkHits(fieldName, "20,10", 200, 0);
   }
 
+  @Test
+  public void testPolygon() throws Exception {
+    String fieldName = "home_gh";
+    setupGridDocs(fieldName);
+    //a right triangle with its hypotenuse between grid points
+    int[] ids = {5005, 5015, 5025, 5035, 15005, 15015, 15025, 25005, 25015, 35005};
+    assertQ(req("fl", "id", "q", "*:*", "rows", "1000",
+        "fq", "{!gh_geofilt sfield=" + fieldName + " polygon=0,0,0,42,42,0}"),
+        makeTestXPathsFromDocIds(ids.length, ids));
+    //a concave "C", closed by repeating the first vertex
+    ids = new int[]{-4995, -4985, -4975, 5005, 15005, 15015, 15025};
+    assertQ(req("fl", "id", "q", "*:*", "rows", "1000",
+        "fq", "{!gh_geofilt sfield=" + fieldName + " polygon=-10,0,-10,30,0,30,0,10,10,10,10,30,20,30,20,0,-10,0}"),
+        makeTestXPathsFromDocIds(ids.length, ids));
+  }
+
+  @Test
+  public void testGeometry() throws Exception {
+    String fieldName = "home_gh";
+    setupGridDocs(fieldName);
+    //the C of testPolygon, as a square with a hole open to the east
+    String wkt = "POLYGON((0 -10, 30 -10, 30 20, 0 20, 0 -10), (10 0, 30 0, 30 10, 10 10, 10 0))";
+    int[] ids = {-4995, -4985, -4975, 5005, 15005, 15015, 15025};
+    for (int i = 0; i < 2; i++) {//the second time from the cache
+      assertQ(req("fl", "id", "q", "*:*", "rows", "1000",
+          "fq", "{!gh_geofilt sfield=" + fieldName + " geometry=$g}", "g", wkt),
+          makeTestXPathsFromDocIds(ids.length, ids));
+    }
+    SpatialGeoHashFilterQParser.Plugin plugin =
+        (SpatialGeoHashFilterQParser.Plugin) h.getCore().getQueryPlugin("gh_geofilt");
+    assertTrue(plugin.geometryCache.containsKey(wkt));
+
+    ids = new int[]{5005, 75175};
+    assertQ(req("fl", "id", "q", "*:*", "rows", "1000",
+        "fq", "{!gh_geofilt sfield=" + fieldName + " geometry=$g}",
+        "g", "MULTIPOLYGON(((0 0, 10 0, 10 10, 0 10)), ((170 70, 180 70, 180 80, 170 80)))"),
+        makeTestXPathsFromDocIds(ids.length, ids));
+    //within 100km of a line between grid points
+    ids = new int[]{5005, 5015};
+    assertQ(req("fl", "id", "q", "*:*", "rows", "1000",
+        "fq", "{!gh_geofilt sfield=" + fieldName + " geometry=$g buffer=100000}", "g", "LINESTRING(5 5.5, 15 5.5)"),
+        makeTestXPathsFromDocIds(ids.length, ids));
+  }
+
+  @Test
+  public void testMultiPoint() throws Exception {
+    String fieldName = "home_gh";
+    setupGridDocs(fieldName);
+    checkHits(fieldName, "5,5;45,95", 100, 2, 5005, 45095);
+    checkHits(fieldName, false, "5,5; 45,95", 100, 2, 5005, 45095);
+    //overlapping circles match a doc once
+    checkHits(fieldName, "5,5;5,5.5;-45,-175", 100, 2, 5005, -45175);
+    assertQ(req("fl", "id", "q", "*:*", "rows", "1000",
+        "fq", "{!gh_geofilt sfield=" + fieldName + " point='5,5;45,95;45,95.1' radius=100000}"),
+        makeTestXPathsFromDocIds(2, new int[]{5005, 45095}));
+  }
+
+  @Test
+  public void testAnnulus() throws Exception {
+    String fieldName = "home_gh";
+    setupGridDocs(fieldName);
+    //the points at 5,5 are ~786km from 0,0; at 5,15 ~1756km; at 15,15 ~2345km
+    int[] ids = {5015, 4985, -4985, -5015, 15005, 14995, -14995, -15005};
+    assertQ(req("fl", "id", "q", "*:*", "rows", "1000",
+        "fq", "{!gh_geofilt sfield=" + fieldName + " point=0,0 minRadius=1000000 radius=2000000}"),
+        makeTestXPathsFromDocIds(ids.length, ids));
+    //a ring around each point
+    assertQ(req("fl", "id", "q", "*:*", "rows", "1000",
+        "fq", "{!gh_geofilt sfield=" + fieldName + " point='0,0;5,5' minRadius=1000 radius=1000000}"),
+        makeTestXPathsFromDocIds(4, new int[]{5005, 4995, -4995, -5005}));
+  }
+
+  @Test
+  public void testExclude() throws Exception {
+    String fieldName = "home_gh";
+    setupGridDocs(fieldName);
+    String zones = "MULTIPOLYGON (((0 0, 10 0, 10 10, 0 10)), ((10 10, 20 10, 20 20, 10 20)))";
+    assertQ(req("fl", "id", "q", "*:*", "rows", "1000",
+        "fq", "{!gh_geofilt sfield=" + fieldName + " box=0,0,20,20 exclude='" + zones + "'}"),
+        makeTestXPathsFromDocIds(2, new int[]{5015, 15005}));
+    assertQ(req("fl", "id", "q", "*:*", "rows", "1000",
+        "fq", "{!gh_geofilt sfield=" + fieldName + " point=5,5 radius=100000 exclude='POLYGON ((4 4, 6 4, 6 6, 4 6))'}"),
+        makeTestXPathsFromDocIds(0, new int[0]));
+  }
+
+  @Test
+  public void testWithin() throws Exception {
+    String fieldName = "home_gh";
+    setupGridDocs(fieldName);
+    assertQ(req("fl", "id", "q", "*:*", "rows", "1000",
+        "fq", "{!gh_geofilt sfield=" + fieldName + " box=0,0,20,20 within='POLYGON ((0 0, 10 0, 10 10, 0 10))'}"),
+        makeTestXPathsFromDocIds(1, new int[]{5005}));
+    //within, then exclude
+    assertQ(req("fl", "id", "q", "*:*", "rows", "1000",
+        "fq", "{!gh_geofilt sfield=" + fieldName + " point=5,5 radius=2000000 within='POLYGON ((0 0, 20 0, 20 20, 0 20))'"
+            + " exclude='POLYGON ((0 0, 10 0, 10 10, 0 10))'}"),
+        makeTestXPathsFromDocIds(3, new int[]{5015, 15005, 15015}));
+  }
+  @Test
+  public void testBadParams() throws Exception {
+    String fq = "{!gh_geofilt sfield=home_gh ";
+    String[] bad = {"point=0,0 radius=x}", "point=0,0 radius=1000 minRadius=x}", "minRadius=1000}",
+        "box=0,0,20,20 minRadius=1000}", "box=0,0,20,20 buffer=1000}", "polygon=0,0,0,10,10,10 buffer=1000}",
+        "point=0,0 radius=1000 buffer=1000}", "geometry='POLYGON ((0 0, 10 0, 10 10, 0 10))' buffer=1000}",
+        "radius=1000}"};
+    ignoreException("gh_geofilt");
+    for (String params : bad) {
+      assertQEx(params, req("q", "*:*", "fq", fq + params), 400);
+    }
+    resetExceptionIgnores();
+  }
+
+
+  @Test
+  public void testPostFilter() throws Exception {
+    String fieldName = "home_gh";
+    setupGridDocs(fieldName);
+    String shape = "sfield=" + fieldName + " point='5,5;45,95' minRadius=1000 radius=1200000";
+    assertTrue(QParser.getParser("{!gh_geofilt cache=false cost=100 " + shape + "}", null, req()).getQuery()
+        instanceof GeoHashPostFilter);
+    assertFalse(QParser.getParser("{!gh_geofilt cache=false cost=99 " + shape + "}", null, req()).getQuery()
+        instanceof GeoHashPostFilter);
+    //the neighbors of each point, but not the point itself in the hole
+    int[] ids = {4995, -4995, 15005, 5015, 45085, 35095, 55095, 45105};
+    //the same docs as without the post filter, from the points the filter has matched so far
+    for (String options : new String[]{"", "cache=false cost=100 "}) {
+      assertQ(req("fl", "id", "q", "*:*", "rows", "1000", "fq", "{!gh_geofilt " + options + shape + "}"),
+          makeTestXPathsFromDocIds(ids.length, ids));
+    }
+    assertQ(req("fl", "id", "q", "id:[0 TO *]", "rows", "1000", "fq", "{!gh_geofilt cache=false cost=100 " + shape + "}"),
+        makeTestXPathsFromDocIds(7, new int[]{4995, 15005, 5015, 45085, 35095, 55095, 45105}));
+    //as the main query it's the grid traversal
+    assertQ(req("fl", "id", "q", "{!gh_geofilt cache=false cost=100 " + shape + "}", "rows", "1000"),
+        makeTestXPathsFromDocIds(ids.length, ids));
+  }
+
+  @Test
+  public void testDatelineBox() throws Exception {
+    String fieldName = "home_gh";
+    setupGridDocs(fieldName);
+    int[] ids = {-4825, -5175, 5175, 4825};
+    assertQ(req("fl", "id", "q", "*:*", "rows", "1000",
+        "fq", "{!gh_geofilt sfield=" + fieldName + " box=170,-10,-170,10}"),
+        makeTestXPathsFromDocIds(ids.length, ids));
+    checkHits(fieldName, false, "5,180", 600, 2, 5175, 4825);
+  }
+
+  @Test
+  public void testCorridor() throws Exception {
+    String fieldName = "home_gh";
+    setupGridDocs(fieldName);
+    //an L through grid points and just past others, between about 10km and 100km from them
+    int[] ids = {5005, 5015, 5025, 15025, 25025, 25035};
+    assertQ(req("fl", "id", "q", "*:*", "rows", "1000",
+        "fq", "{!gh_geofilt sfield=" + fieldName + " line='5,5;5.1,25;25.1,25.1;25,35' buffer=50000}"),
+        makeTestXPathsFromDocIds(ids.length, ids));
+  }
+
   @Test
   public void testLatLonType() throws Exception {
     testSpatialType("home_ll");
@@ -150,6 +310,63 @@ public class SpatialFilterTest extends SolrTestCaseJ4 {
     checkHits(fieldName, false, "43.517030,-96.789603", 110, 1, 17);
   }
 
+  @Test
+  public void testKnn() throws Exception {
+    final String fieldName = "home_gh";
+    clearIndex();
+    final int numDocs = 100;
+    List<List<Point2D>> docPoints = new ArrayList<List<Point2D>>(numDocs);
+    for (int i = 0; i < numDocs; i++) {
+      List<Point2D> points = new ArrayList<Point2D>();
+      String[] fields = new String[2];
+      fields[0] = "id";
+      fields[1] = ""+i;
+      int numPoints = 1 + random.nextInt(2);
+      for (int p = 0; p < numPoints; p++) {
+        //mostly near one place, some anywhere
+        Point2D pt = random.nextInt(4) == 0 ? normPoint(random.nextDouble() * 360 - 180, random.nextDouble() * 180 - 90)
+            : normPoint(random.nextDouble() * 2 + 10, random.nextDouble() * 2 + 50);
+        points.add(pt);
+        fields = Arrays.copyOf(fields, fields.length + 2);
+        fields[fields.length - 2] = fieldName;
+        fields[fields.length - 1] = pt.getY() + "," + pt.getX();
+      }
+      docPoints.add(points);
+      assertU(adoc(fields));
+      if (random.nextInt(30) == 0)
+        assertU(commit());//more segments
+    }
+    assertU(commit());
+
+    for (int iter = 0; iter < 5; iter++) {
+      final Point2D center = iter == 0 ? normPoint(-170, -50)//far from most
+          : normPoint(random.nextDouble() * 4 + 9, random.nextDouble() * 4 + 49);
+      final int k = 1 + random.nextInt(iter == 0 ? numDocs : 20);
+      //brute force
+      final double[] dists = new double[numDocs];
+      Integer[] ids = new Integer[numDocs];
+      for (int i = 0; i < numDocs; i++) {
+        ids[i] = i;
+        dists[i] = Double.MAX_VALUE;
+        for (Point2D point : docPoints.get(i)) {
+          dists[i] = Math.min(dists[i], calcDist(center, point));
+        }
+      }
+      Arrays.sort(ids, new Comparator<Integer>() {
+        public int compare(Integer a, Integer b) {
+          return Double.compare(dists[a], dists[b]);
+        }
+      });
+      int[] expected = new int[k];
+      for (int i = 0; i < k; i++) {
+        expected[i] = ids[i];
+      }
+      assertQ(req("fl", "id", "q", "*:*", "rows", "1000",
+          "fq", "{!gh_knn sfield=" + fieldName + " k=" + k + "}", "pt", center.getY() + "," + center.getX()),
+          makeTestXPathsFromDocIds(k, expected));
+    }
+  }
+
   private void checkHits(String fieldName, String pt, double distance, int count, int ... docIds) {
     checkHits(fieldName, true, pt, distance, count, docIds);
   }
@@ -16,11 +16,16 @@ package solr2155.solr.search.function.distance;
  * limitations under the License.
  */
 
+import org.apache.lucene.spatial.DistanceUtils;
 import org.apache.solr.SolrTestCaseJ4;
 import org.apache.solr.common.SolrException;
 import org.junit.BeforeClass;
 import org.junit.Test;
 
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Random;
+
 /**
  *
  *
@@ -110,6 +115,46 @@ public class DistanceFunctionTest extends SolrTestCaseJ4 {
 
   }
 
+  @Test
+  public void testLatLonSort() throws Exception {
+    clearIndex();
+    //enough docs for several blocks of the comparator, in two segments
+    Random random = new Random(42);
+    final int numDocs = 300;
+    double[] dists = new double[numDocs];
+    for (int i = 0; i < numDocs; i++) {
+      double lat = random.nextDouble() * 170 - 85;
+      double lon = random.nextDouble() * 360 - 180;
+      assertU(adoc("id", Integer.toString(i), "store", lat + "," + lon));
+      dists[i] = DistanceUtils.haversine(lat * DistanceUtils.DEGREES_TO_RADIANS, lon * DistanceUtils.DEGREES_TO_RADIANS,
+          0.3 * DistanceUtils.DEGREES_TO_RADIANS, 2.1 * DistanceUtils.DEGREES_TO_RADIANS, DistanceUtils.EARTH_MEAN_RADIUS_KM);
+      if (i == numDocs / 2)
+        assertU(commit());
+    }
+    assertU(commit());
+
+    Integer[] ids = new Integer[numDocs];
+    for (int i = 0; i < numDocs; i++) {
+      ids[i] = i;
+    }
+    final double[] distances = dists;
+    Arrays.sort(ids, new Comparator<Integer>() {
+      public int compare(Integer o1, Integer o2) {
+        return Double.compare(distances[o1], distances[o2]);
+      }
+    });
+
+    //all docs match, so the comparator calculates whole blocks; and only a few do, so it goes per doc
+    for (String q : new String[]{"*:*", "id:(" + ids[0] + " " + ids[1] + " " + ids[numDocs - 2] + " " + ids[numDocs - 1] + ")"}) {
+      assertQ(req("q", q, "fl", "id", "sort", "geodist() asc", "sfield", "store", "pt", "0.3,2.1", "rows", "2"),
+          "//result/doc[1]/str[@name='id'][.='" + ids[0] + "']",
+          "//result/doc[2]/str[@name='id'][.='" + ids[1] + "']");
+      assertQ(req("q", q, "fl", "id", "sort", "geodist() desc", "sfield", "store", "pt", "0.3,2.1", "rows", "2"),
+          "//result/doc[1]/str[@name='id'][.='" + ids[numDocs - 1] + "']",
+          "//result/doc[2]/str[@name='id'][.='" + ids[numDocs - 2] + "']");
+    }
+  }
+
   
   @Test
   public void testVector() throws Exception {
@@ -17,15 +17,31 @@
 
 package solr2155.solr.search.function.distance;
 
+import org.apache.lucene.search.FieldDoc;
+import org.apache.lucene.search.MatchAllDocsQuery;
+import org.apache.lucene.search.Sort;
+import org.apache.lucene.search.TopFieldDocs;
+import org.apache.lucene.spatial.DistanceUtils;
 import org.apache.solr.SolrTestCaseJ4;
 import org.apache.solr.common.params.CommonParams;
+import org.apache.solr.common.util.NamedList;
 import org.apache.solr.request.SolrQueryRequest;
+import org.apache.solr.request.SolrRequestInfo;
 import org.apache.solr.response.SolrQueryResponse;
 import org.apache.solr.search.DocIterator;
 import org.apache.solr.search.DocList;
 import org.apache.solr.search.DocSlice;
+import org.apache.solr.search.SolrCache;
+import org.apache.solr.search.SolrIndexSearcher;
+import org.apache.solr.util.RefCounted;
+import org.junit.AfterClass;
 import org.junit.BeforeClass;
 import org.junit.Test;
+import solr2155.solr.search.function.GeoHashValueSource;
+import solr2155.solr.search.function.GeoHashValueSourceCache;
+
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  *
@@ -34,9 +50,15 @@ import org.junit.Test;
 public class MultiDistanceFunctionTest extends SolrTestCaseJ4 {
   @BeforeClass
   public static void beforeClass() throws Exception {
+    System.setProperty("solr2155.unitVectors", String.valueOf(random.nextBoolean()));
     initCore("solrconfig_multi.xml", "schema_multi.xml", "src/test/test-files/solr");
   }
 
+  @AfterClass
+  public static void afterClass() throws Exception {
+    System.clearProperty("solr2155.unitVectors");
+  }
+
   @Test
   public void testGeoMultiDist() throws Exception {
     clearIndex();
@@ -95,6 +117,288 @@ public class MultiDistanceFunctionTest extends SolrTestCaseJ4 {
             );
   }
 
+  @Test
+  public void testSingleValuedAsVector() throws Exception {
+    clearIndex();
+    assertU(adoc("id", "1", "store", "43.17614,-90.57341"));
+    assertU(adoc("id", "2", "store", "45.17614,-93.57341"));
+    assertU(adoc("id", "3"));//no point
+    assertU(commit());
+
+    //Solr's dist() works off of doubleVal(doc,double[]) which is lat,lon for a single-valued field
+    assertQScore(req("fl", "*,score", "q", "{!func}dist(2,store,vector(43.17614,-90.57341))", "fq", "id:1"), 0, 0f);
+    assertQScore(req("fl", "*,score", "q", "{!func}dist(2,store,vector(43.17614,-90.57341))", "fq", "id:2"),
+        0, (float) Math.sqrt(2*2 + 3*3));
+    //geodist() on the single-valued data
+    assertQ(req("fl", "id", "q", "*:*", "sfield", "store", "pt", "45,-93", "sort", "geodist() asc"),
+        "//doc[1]/str[@name='id']='2'", "//doc[2]/str[@name='id']='1'", "//doc[3]/str[@name='id']='3'");
+  }
+
+  @Test
+  public void testValueSourceCache() throws Exception {
+    clearIndex();
+    assertU(adoc("id", "1", "store", "43.17614,-90.57341", "store", "45.17614,-93.57341"));
+    assertU(commit());
+    for (int i = 0; i < 2; i++) {
+      assertQ(req("fl", "id", "q", "*:*", "sfield", "store", "pt", "45,-93", "sort", "geodist() asc"),
+          "//*[@numFound='1']");
+    }
+    RefCounted<SolrIndexSearcher> searcher = h.getCore().getSearcher();
+    try {
+      SolrCache cache = searcher.get().getCache(GeoHashValueSource.CACHE_NAME);
+      assertTrue(cache instanceof GeoHashValueSourceCache);
+      NamedList stats = cache.getStatistics();
+      assertEquals(1, stats.get("size"));
+      //the first query is a miss unless the field was autowarmed from a prior searcher
+      assertTrue(((Long) stats.get("hits")) >= 1);
+      assertEquals(2L, ((Long) stats.get("hits")) + ((Long) stats.get("misses")));
+      assertTrue(((Long) stats.get("ramBytes")) > 0);
+    } finally {
+      searcher.decref();
+    }
+  }
+
+  @Test
+  public void testSortMatchesScore() throws Exception {
+    indexRandomStores(60, 20);
+    String pt = (random.nextDouble() * 20 + 30) + "," + (random.nextDouble() * 20 - 100);
+    for (String dir : new String[]{"asc", "desc"}) {
+      int rows = 1 + random.nextInt(15);
+      List<Integer> bySort = queryIds(req("fl", "id", "q", "*:*", "sfield", "store", "pt", pt,
+          "sort", "geodist() " + dir, "rows", String.valueOf(rows)));
+      List<Integer> byScore = queryIds(req("fl", "id", "q", "{!func}geodist()", "sfield", "store", "pt", pt,
+          "sort", "score " + dir, "rows", String.valueOf(rows)));
+      assertEquals(byScore, bySort);
+    }
+  }
+
+  @Test
+  public void testDistanceFacet() throws Exception {
+    clearIndex();
+    assertU(adoc("id", "1", "store", "43.17614,-90.57341"));//0km
+    assertU(adoc("id", "2", "store", "45.17614,-93.87341", "store", "43.5614,-90.67341"));//43.59km
+    assertU(adoc("id", "3", "store", "35.0752,-97.032"));//1058km
+    assertU(adoc("id", "4"));//no point
+    assertU(commit());
+    assertQ(req("q", "*:*", "sfield", "store", "pt", "43.17614,-90.57341",
+        "geofacet", "true", "geofacet.ranges", "50,1,10000,5"),
+        "//lst[@name='geofacet_counts']/int[1][@name='1'][.='1']",
+        "//lst[@name='geofacet_counts']/int[2][@name='5'][.='1']",
+        "//lst[@name='geofacet_counts']/int[3][@name='50'][.='2']",
+        "//lst[@name='geofacet_counts']/int[4][@name='10000'][.='3']");
+    //only counts the matching docs
+    assertQ(req("q", "id:2 OR id:3", "geofacet", "true", "geofacet.sfield", "store",
+        "geofacet.pt", "43.17614,-90.57341", "geofacet.ranges", "50"),
+        "//lst[@name='geofacet_counts']/int[@name='50'][.='1']");
+    assertQEx("negative range", req("q", "*:*", "sfield", "store", "pt", "43.17614,-90.57341",
+        "geofacet", "true", "geofacet.ranges", "50,-1"), 400);
+  }
+
+  @Test
+  public void testNearestPoint() throws Exception {
+    clearIndex();
+    assertU(adoc("id", "1", "store", "45.17614,-93.87341", "store", "43.5614,-90.67341"));//43.59km
+    assertU(adoc("id", "2", "store", "35.0752,-97.032"));//1058km
+    assertU(adoc("id", "3"));//no point
+    assertU(commit());
+    String[] tests = {
+        "//lst[@name='geonear']/lst[@name='1']/str[@name='point'][starts-with(.,'43.561')][contains(.,',-90.673')]",
+        "//lst[@name='geonear']/lst[@name='1']/double[@name='distance'][starts-with(.,'43.59')]",
+        "//lst[@name='geonear']/lst[@name='2']/str[@name='point'][starts-with(.,'35.075')][contains(.,',-97.03')]",
+        "//lst[@name='geonear']/lst[@name='2']/double[@name='distance'][starts-with(.,'1058.3')]",
+        "count(//lst[@name='geonear']/lst)=2"};
+    //using the sort's distances
+    assertQ(req("q", "*:*", "sfield", "store", "pt", "43.17614,-90.57341", "sort", "geodist() asc",
+        "geonear", "true"), tests);
+    //calculated
+    assertQ(req("q", "*:*", "sfield", "store", "pt", "43.17614,-90.57341", "geonear", "true"), tests);
+  }
+
+  @Test
+  public void testDistanceMemo() throws Exception {
+    DistanceMemo memo = new DistanceMemo();
+    for (int doc = 0; doc < 1000; doc += 3) {//enough to rehash
+      memo.put(doc, doc / 1000.0, doc % 2 == 0 ? doc : -1);
+    }
+    memo.put(999, 0.5, 7);//replaces one
+    memo.put(999, 0.25, 8);
+    assertEquals(334, memo.size());
+    for (int doc = 0; doc < 1000; doc++) {
+      int index = memo.find(doc);
+      if (doc == 999) {
+        assertEquals(0.25, memo.hav(index), 0);
+        assertEquals(8, memo.point(index));
+      } else if (doc % 3 != 0) {
+        assertEquals(-1, index);
+      } else {
+        assertEquals(doc / 1000.0, memo.hav(index), 0);
+        assertEquals(doc % 2 == 0 ? doc : -1, memo.point(index));
+      }
+    }
+
+    //sort, facet & nearest points in one request, sharing the memo
+    clearIndex();
+    assertU(adoc("id", "1", "store", "45.17614,-93.87341", "store", "43.5614,-90.67341"));//43.59km
+    assertU(adoc("id", "2", "store", "35.0752,-97.032"));//1058km
+    assertU(adoc("id", "3"));//no point
+    assertU(commit());
+    assertQ(req("q", "*:*", "fl", "id", "sfield", "store", "pt", "43.17614,-90.57341", "sort", "geodist() asc",
+        "geonear", "true", "geofacet", "true", "geofacet.ranges", "50,2000"),
+        "//result/doc[1]/str[@name='id'][.='1']",
+        "//result/doc[2]/str[@name='id'][.='2']",
+        "//lst[@name='geonear']/lst[@name='1']/double[@name='distance'][starts-with(.,'43.59')]",
+        "//lst[@name='geonear']/lst[@name='2']/double[@name='distance'][starts-with(.,'1058.3')]",
+        "count(//lst[@name='geonear']/lst)=2",
+        "//lst[@name='geofacet_counts']/int[@name='50'][.='1']",
+        "//lst[@name='geofacet_counts']/int[@name='2000'][.='2']");
+    //the sort puts every doc in the memo, though geonear alone would only need the one returned (a new query, so that
+    //the sort isn't skipped by the query result cache)
+    SolrQueryRequest req = req("q", "id:1 OR id:2 OR id:3", "fl", "id", "sfield", "store", "pt", "43.17614,-90.57341",
+        "sort", "geodist() asc", "rows", "1", "geonear", "true");
+    SolrRequestInfo.setRequestInfo(new SolrRequestInfo(req, new SolrQueryResponse()));//as the dispatch filter does
+    try {
+      h.queryAndResponse(null, req);
+      DistanceMemo shared = DistanceMemo.get(req, new HaversineMultiConstFunction(43.17614, -90.57341,
+          GeoHashValueSource.getValueSource("store", req.getSearcher()), true));
+      assertNotNull(shared);
+      assertEquals(3, shared.size());
+      for (int doc = 0; doc < 3; doc++) {
+        assertTrue(shared.find(doc) >= 0);
+      }
+    } finally {
+      SolrRequestInfo.clearRequestInfo();
+      req.close();
+    }
+  }
+
+  @Test
+  public void testModes() throws Exception {
+    clearIndex();
+    assertU(adoc("id", "1", "store", "43.5614,-90.67341", "store", "30.44614,-91.60341", "store", "35.0752,-97.202"));
+    assertU(adoc("id", "2", "store", "43.17614,-90.57341"));
+    assertU(adoc("id", "3"));//no point
+    assertU(commit());
+    final String pt = "43.17614,-90.57341";
+    assertQScore(req("q", "{!func}geodist()", "fl", "id,score", "sfield", "store", "pt", pt, "fq", "id:1"), 0, 43.595f);
+    assertQScore(req("q", "{!func}geodist()", "fl", "id,score", "sfield", "store", "pt", pt, "fq", "id:1",
+        "mode", "min"), 0, 43.595f);
+    assertQScore(req("q", "{!func}geodist()", "fl", "id,score", "sfield", "store", "pt", pt, "fq", "id:1",
+        "mode", "max"), 0, 1418.4475f);
+    assertQScore(req("q", "{!func}geodist()", "fl", "id,score", "sfield", "store", "pt", pt, "fq", "id:1",
+        "mode", "avg"), 0, 842.7163f);
+    assertQScore(req("q", "{!func}geodist()", "fl", "id,score", "sfield", "store", "pt", pt, "fq", "id:1",
+        "mode", "countWithin", "d", "1100"), 0, 2f);
+    assertQScore(req("q", "{!func}geodist()", "fl", "id,score", "sfield", "store", "pt", pt, "fq", "id:3",
+        "mode", "countWithin", "d", "1100"), 0, 0f);
+    //sorting
+    assertQ(req("fl", "id", "q", "*:*", "sfield", "store", "pt", pt, "sort", "geodist() desc", "mode", "max"),
+        "//doc[1]/str[@name='id']='1'", "//doc[2]/str[@name='id']='2'", "//doc[3]/str[@name='id']='3'");
+    assertQ(req("fl", "id", "q", "*:*", "sfield", "store", "pt", pt, "sort", "geodist() desc",
+        "mode", "countWithin", "d", "1100"),
+        "//doc[1]/str[@name='id']='1'", "//doc[2]/str[@name='id']='2'", "//doc[3]/str[@name='id']='3'");
+    assertQEx("unknown mode", req("q", "{!func}geodist()", "sfield", "store", "pt", pt, "mode", "median"), 400);
+    //only min and max measure to one point
+    for (HaversineMultiConstFunction.Mode mode : new HaversineMultiConstFunction.Mode[]{
+        HaversineMultiConstFunction.Mode.AVG, HaversineMultiConstFunction.Mode.COUNT_WITHIN}) {
+      try {
+        new HaversineMultiConstFunction(43, -90, null, mode, 1100).getHaversineValues(null, null);
+        fail("mode " + mode);
+      } catch (IllegalStateException e) {
+        //expected
+      }
+    }
+  }
+
+  @Test
+  public void testGeoDecay() throws Exception {
+    clearIndex();
+    assertU(adoc("id", "1", "store", "43.5614,-90.67341"));//43.595km
+    assertU(adoc("id", "2", "store", "43.5614,-90.67341", "store", "43.17614,-90.57341"));//43.595km & 0
+    assertU(adoc("id", "3"));//no point
+    assertU(commit());
+    final String pt = "43.17614,-90.57341";
+    assertQScore(req("q", "{!func}geodecay(gauss,43.59496)", "fl", "id,score", "sfield", "store", "pt", pt,
+        "fq", "id:1"), 0, 0.5f);
+    assertQScore(req("q", "{!func}geodecay(exp,43.59496,0,0.5)", "fl", "id,score", "sfield", "store", "pt", pt,
+        "fq", "id:1"), 0, 0.5f);
+    assertQScore(req("q", "{!func}geodecay(exp,10,50)", "fl", "id,score", "sfield", "store", "pt", pt,
+        "fq", "id:1"), 0, 1f);
+    assertQScore(req("q", "{!func}geodecay(linear,87.18992,0,0.5)", "fl", "id,score", "sfield", "store", "pt", pt,
+        "fq", "id:1"), 0, 0.75f);
+    //the nearest point, or the sum over all points
+    assertQScore(req("q", "{!func}geodecay(exp,43.59496)", "fl", "id,score", "sfield", "store", "pt", pt,
+        "fq", "id:2"), 0, 1f);
+    assertQScore(req("q", "{!func}geodecay(exp,43.59496,0,0.5,sum)", "fl", "id,score", "sfield", "store", "pt", pt,
+        "fq", "id:2"), 0, 1.5f);
+    assertQScore(req("q", "{!func}geodecay(exp,43.59496,0,0.5,sum)", "fl", "id,score", "sfield", "store", "pt", pt,
+        "fq", "id:3"), 0, 0f);
+    assertQEx("bad decay", req("q", "{!func}geodecay(gauss,10,0,1)", "sfield", "store", "pt", pt), 400);
+  }
+
+  @Test
+  public void testSortValues() throws Exception {
+    clearIndex();
+    assertU(adoc("id", "1", "store", "43.17614,-90.57341", "store", "45.17614,-93.57341"));
+    assertU(adoc("id", "2", "store", "35.0752,-97.032"));
+    assertU(adoc("id", "3", "store", "-43.17614,89.42659"));//nearly the antipode of the center
+    assertU(commit());
+    RefCounted<SolrIndexSearcher> searcherRef = h.getCore().getSearcher();
+    try {
+      SolrIndexSearcher searcher = searcherRef.get();
+      HaversineMultiConstFunction vs = new HaversineMultiConstFunction(43.17614, -90.57341,
+          GeoHashValueSource.getValueSource("store", searcher), true);
+      Sort sort = searcher.weightSort(new Sort(vs.getSortField(false)));
+      TopFieldDocs docs = searcher.search(new MatchAllDocsQuery(), null, 2, sort);
+      assertEquals(2, docs.scoreDocs.length);
+      assertEquals(0.0, (Double) ((FieldDoc) docs.scoreDocs[0]).fields[0], 0.0001);
+      assertEquals(1058.3597, (Double) ((FieldDoc) docs.scoreDocs[1]).fields[0], 0.01);
+
+      sort = searcher.weightSort(new Sort(vs.getSortField(true)));
+      docs = searcher.search(new MatchAllDocsQuery(), null, 1, sort);
+      assertEquals(Math.PI * DistanceUtils.EARTH_MEAN_RADIUS_KM,
+          (Double) ((FieldDoc) docs.scoreDocs[0]).fields[0], 1);
+    } finally {
+      searcherRef.decref();
+    }
+  }
+
+  /**
+   * Indexes numDocs docs with ids 0 to numDocs - 1 and 1 to 3 random "store" points each, around the US, committing
+   * after each doc with a chance of 1 in commitOdds for more segments, or never if it's 0.
+   */
+  static void indexRandomStores(int numDocs, int commitOdds) {
+    assertU(delQ("*:*"));
+    for (int i = 0; i < numDocs; i++) {
+      int numPoints = 1 + random.nextInt(3);
+      String[] fields = new String[2 + numPoints * 2];
+      fields[0] = "id";
+      fields[1] = String.valueOf(i);
+      for (int p = 0; p < numPoints; p++) {
+        fields[2 + p * 2] = "store";
+        fields[3 + p * 2] = (random.nextDouble() * 20 + 30) + "," + (random.nextDouble() * 20 - 100);
+      }
+      assertU(adoc(fields));
+      if (commitOdds > 0 && random.nextInt(commitOdds) == 0)
+        assertU(commit());//more segments
+    }
+    assertU(commit());
+  }
+
+  /** The ids of the docs the request returns, in order; closes the request. */
+  static List<Integer> queryIds(SolrQueryRequest req) throws Exception {
+    try {
+      SolrQueryResponse resp = h.queryAndResponse(req.getParams().get(CommonParams.QT), req);
+      DocList docList = (DocList) resp.getValues().get("response");
+      List<Integer> ids = new ArrayList<Integer>();
+      for (DocIterator iter = docList.iterator(); iter.hasNext(); ) {
+        ids.add(Integer.valueOf(req.getSearcher().doc(iter.nextDoc()).get("id")));
+      }
+      return ids;
+    } finally {
+      req.close();
+    }
+  }
+
   /** TODO propose that this go into Solr's test harness. */
   private void assertQScore(SolrQueryRequest req, int docIdx, float targetScore) throws Exception {
     try {
@@ -0,0 +1,141 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package solr2155.solr.search.function.distance;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.solr.SolrTestCaseJ4;
+import org.apache.solr.response.SolrQueryResponse;
+import org.apache.solr.search.SolrIndexSearcher;
+import org.apache.solr.search.function.ValueSource;
+import org.apache.solr.util.RefCounted;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import solr2155.solr.search.function.GeoHashValueSource;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Tests geodist() sorting with {@link ParallelDistances}, configured to calculate ahead after 2 hits in chunks of 8.
+ */
+public class ParallelDistancesTest extends SolrTestCaseJ4 {
+  @BeforeClass
+  public static void beforeClass() throws Exception {
+    System.setProperty("solr2155.parallelThreshold", "2");
+    System.setProperty("solr2155.parallelChunkSize", "8");
+    initCore("solrconfig_multi.xml", "schema_multi.xml", "src/test/test-files/solr");
+  }
+
+  @AfterClass
+  public static void afterClass() throws Exception {
+    System.clearProperty("solr2155.parallelThreshold");
+    System.clearProperty("solr2155.parallelChunkSize");
+  }
+
+  private int indexRandomDocs(boolean oneSegment) {
+    final int numDocs = 200 + random.nextInt(100);
+    MultiDistanceFunctionTest.indexRandomStores(numDocs, oneSegment ? 0 : 50);
+    if (oneSegment)
+      assertU(optimize());
+    return numDocs;
+  }
+
+  /** The system properties configure solrconfig_multi.xml's geodist(). */
+  @Test
+  public void testConfig() throws Exception {
+    HaversineConstFunction.HaversineValueSourceParser parser =
+        (HaversineConstFunction.HaversineValueSourceParser) h.getCore().getValueSourceParser("geodist");
+    assertEquals(2, parser.getParallel().getThreshold());
+  }
+
+  /** Sorting by geodist() matches sorting by it as the score, for dense and sparse hits. */
+  @Test
+  public void testSortMatchesScore() throws Exception {
+    final int numDocs = indexRandomDocs(false);
+    for (int iter = 0; iter < 10; iter++) {
+      String pt = (random.nextDouble() * 20 + 30) + "," + (random.nextDouble() * 20 - 100);
+      String fq;
+      switch (iter % 3) {
+        case 0:
+          fq = "*:*";
+          break;
+        case 1://sparse throughout
+          fq = randomIds(0, numDocs, 10);
+          break;
+        default://dense, then sparse
+          fq = "id:[0 TO " + (numDocs / 3) + "] OR " + randomIds(numDocs / 3, numDocs, 5);
+      }
+      for (String dir : new String[]{"asc", "desc"}) {
+        String rows = String.valueOf(1 + random.nextInt(20));
+        List<Integer> bySort = MultiDistanceFunctionTest.queryIds(req("fl", "id", "q", "*:*", "fq", fq,
+            "sfield", "store", "pt", pt, "sort", "geodist() " + dir, "rows", rows));
+        List<Integer> byScore = MultiDistanceFunctionTest.queryIds(req("fl", "id", "q", "{!func}geodist()", "fq", fq,
+            "sfield", "store", "pt", pt, "sort", "score " + dir, "rows", rows));
+        assertEquals(fq + " " + dir, byScore, bySort);
+      }
+    }
+  }
+
+  /** The chunks calculated match the function's values, and calculating ahead stops once the hits are sparse. */
+  @Test
+  public void testSegment() throws Exception {
+    indexRandomDocs(true);
+    RefCounted<SolrIndexSearcher> ref = h.getCore().getSearcher();
+    try {
+      SolrIndexSearcher searcher = ref.get();
+      HaversineMultiConstFunction function = new HaversineMultiConstFunction(40, -90,
+          GeoHashValueSource.getValueSource("store", searcher), true);
+      Map context = ValueSource.newContext();
+      function.createWeight(context, searcher);
+      IndexReader reader = searcher.getIndexReader().getSequentialSubReaders()[0];
+      HaversineMultiConstFunction.HaversineDocValues docVals = function.getHaversineValues(context, reader);
+      final int chunkSize = 8, from = 3;
+      ParallelDistances parallel = new ParallelDistances(2, 2, chunkSize);
+
+      //dense: every doc is covered and matches
+      ParallelDistances.Segment segment = parallel.calculate(function, context, reader, from, true);
+      for (int doc = from; doc < reader.maxDoc(); doc++) {
+        assertTrue("doc " + doc, segment.covers(doc));
+        assertEquals(docVals.havVal(doc), segment.hav(doc), 0.0);
+        assertEquals(docVals.getLastPoint(), segment.point(doc));
+      }
+      segment.cancel();
+
+      //sparse: one hit in the first chunk, then the chunks ahead, though calculated, aren't used
+      segment = parallel.calculate(function, context, reader, from, false);
+      assertTrue(segment.covers(from));
+      assertEquals(docVals.havVal(from), segment.hav(from), 0.0);
+      assertFalse(segment.covers(from + chunkSize * 2));
+      assertFalse(segment.covers(from + chunkSize * 2 + 1));
+      segment.cancel();
+    } finally {
+      ref.decref();
+    }
+  }
+
+  private String randomIds(int from, int to, int count) {
+    StringBuilder fq = new StringBuilder("id:(");
+    for (int i = 0; i < count; i++) {
+      if (i > 0)
+        fq.append(" OR ");
+      fq.append(from + random.nextInt(to - from));
+    }
+    return fq.append(')').toString();
+  }
+}